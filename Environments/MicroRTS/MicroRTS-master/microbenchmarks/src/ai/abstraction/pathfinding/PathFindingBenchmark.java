@@ -0,0 +1,86 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.abstraction.pathfinding;
+
+import benchmarking.BattleScenario;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/**
+ * Measures finding the paths that the scripts look for: every unit of
+ * player 0 looks for a path into attack range of the closest enemy unit.
+ * One operation is one search for every unit of player 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathFindingBenchmark {
+    @Param({"AStarPathFinding", "BucketAStarPathFinding"})
+    public String pathfinding;
+
+    PathFinding pf;
+    GameState gs;
+    List<Unit> units = new ArrayList<>();
+    List<Integer> targets = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp(BattleScenario scenario) throws Exception {
+        pf = (PathFinding)Class.forName("ai.abstraction.pathfinding." + pathfinding).getDeclaredConstructor().newInstance();
+        gs = scenario.gs;
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        for (Unit u : pgs.getUnits()) {
+            if (u.getPlayer() != 0 || !u.getType().canMove) {
+                continue;
+            }
+            Unit closest = null;
+            int closestDistance = 0;
+            for (Unit e : pgs.getUnits()) {
+                if (e.getPlayer() == 1) {
+                    int d = Math.abs(e.getX() - u.getX()) + Math.abs(e.getY() - u.getY());
+                    if (closest == null || d < closestDistance) {
+                        closest = e;
+                        closestDistance = d;
+                    }
+                }
+            }
+            if (closest != null) {
+                units.add(u);
+                targets.add(closest.getPosition(pgs));
+            }
+        }
+    }
+
+    @Benchmark
+    public void findPathToPositionInRange(Blackhole bh) {
+        for (int i = 0; i < units.size(); i++) {
+            Unit u = units.get(i);
+            UnitAction ua = pf.findPathToPositionInRange(u, targets.get(i), u.getAttackRange(), gs, new ResourceUsage());
+            bh.consume(ua);
+        }
+    }
+}
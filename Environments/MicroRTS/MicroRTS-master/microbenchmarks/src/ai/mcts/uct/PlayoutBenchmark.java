@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import ai.RandomScriptedAI;
+import benchmarking.BattleScenario;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rts.GameState;
+
+/**
+ * Measures one playout of BasicMCTS from the scenario's state, with the same
+ * lookahead as the AI configs. Every playout starts from a fresh clone of the
+ * state, and no abstract actions are assigned at its start.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayoutBenchmark {
+    @Param({"100"})
+    public int lookahead;
+
+    BasicMCTS mcts;
+    GameState gs;
+
+    @Setup(Level.Trial)
+    public void setUp(BattleScenario scenario) {
+        mcts = new BasicMCTS(0, -1, lookahead, Integer.MAX_VALUE, new RandomScriptedAI(scenario.scripts), scenario.scripts, "basic_mcts", "");
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpState(BattleScenario scenario) {
+        gs = scenario.gs.clone();
+    }
+
+    @Benchmark
+    public GameState simulate() throws Exception {
+        mcts.simulate(gs, gs.getTime() + lookahead, new HashMap<>());
+        return gs;
+    }
+}
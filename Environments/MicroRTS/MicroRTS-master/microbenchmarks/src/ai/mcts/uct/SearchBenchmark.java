@@ -0,0 +1,73 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import benchmarking.BattleScenario;
+import benchmarking.BenchmarkFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one search of player 0 in the scenario's state, i.e. one call of
+ * computeDuringOneGameFrame, for every MCTS variant that the benchmark runner
+ * can create. The variants are created from their configs in the AI
+ * database, so they use the same number of playouts, lookahead and scripts
+ * as in the benchmarks.
+ *
+ * Every search starts from scratch: the previous search is thrown away and a
+ * new one is started before the measurement. Like in the benchmarks, the
+ * searches log the time and depth of their playouts in time_depth_data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"Basic_MCTS_100", "MCTS_HP_100", "UCB_Tuned_MCTS_100", "VOI_MCTS_100", "Simple_Regret_MCTS_UCB_Sqrt_100",
+            "Simple_Regret_MCTS_EG_0.5_100", "Sigmoid_MCTS_1.0_100", "R_Q_Bonus_MCTS_1.0_100", "WP_MCTS_1.0_1.0_100",
+            "FAP_MCTS_ExpS_ExpM_10_100"})
+    public String ai;
+
+    BasicMCTS mcts;
+
+    @Setup(Level.Trial)
+    public void setUp(BattleScenario scenario) throws Exception {
+        mcts = (BasicMCTS)BenchmarkFactory.MakeAiPlayer(ai, "microbenchmark");
+        mcts.setBattleName(scenario.battle);
+        mcts.setRndBattleString(ai);
+    }
+
+    @Setup(Level.Invocation)
+    public void startSearch(BattleScenario scenario) throws Exception {
+        mcts.resetSearch();
+        mcts.startNewComputation(0, scenario.gs.clone());
+    }
+
+    @Benchmark
+    public MCTSNode computeDuringOneGameFrame() throws Exception {
+        mcts.computeDuringOneGameFrame();
+        return mcts.root;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mcts.gameOver(0);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.selection;
+
+import ai.abstraction.pathfinding.AStarPathFinding;
+import ai.mcts.uct.MCTSNode;
+import ai.portfolio.portfoliogreedysearch.DependentUnitScript;
+import ai.portfolio.portfoliogreedysearch.Kiter;
+import ai.portfolio.portfoliogreedysearch.NOKAV;
+import benchmarking.BattleFactory;
+import benchmarking.BattleSettings;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rts.GameState;
+
+/**
+ * Measures how long the selection functions take to pick a child of the root
+ * of a search tree, for roots with different numbers of children.
+ *
+ * The root is built from the initial state of a battle and expanded until it
+ * has the given number of children, which then get random statistics. The
+ * statistics don't change during the measurement, so every call scores the
+ * same children. EpsilonGreedy is left out, since it expands the root.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectionBenchmark {
+    @Param({"UCB", "UCBTuned", "UCBSqrt", "UCBwoScaling", "VOIAware"})
+    public String selection;
+
+    @Param({"16v16_8D-8B"})
+    public String battle;
+
+    @Param({"16", "64", "256"})
+    public int children;
+
+    SelectionFunction sf;
+    MCTSNode root;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sf = (SelectionFunction)Class.forName("ai.selection." + selection).getDeclaredConstructor().newInstance();
+
+        BattleSettings bs = BattleFactory.MakeBattle(battle, 1);
+        List<DependentUnitScript> scripts = Arrays.asList(new NOKAV(new AStarPathFinding()), new Kiter(new AStarPathFinding(), 3));
+        GameState gs = new GameState(bs.gameState.clone(), bs.utt);
+        root = new MCTSNode(0, 1, gs, null, 1.0f, sf, scripts, new HashMap<>(), new HashMap<>());
+        while (root.children.size() < children && root.expand() != null) {
+        }
+
+        SplittableRandom r = new SplittableRandom(42);
+        for (MCTSNode child : root.children) {
+            int visits = 1 + r.nextInt(100);
+            double evaluation = 0;
+            double squaredValue = 0;
+            for (int i = 0; i < visits; i++) {
+                double e = 2 * r.nextDouble() - 1;
+                evaluation += e;
+                squaredValue += (1 + e) * (1 + e) / 4;
+            }
+            child.update(visits, evaluation);
+            child.addSquaredValue(squaredValue);
+            root.update(visits, evaluation);
+        }
+    }
+
+    @Benchmark
+    public MCTSNode getBestChild() {
+        return sf.getBestChild(root);
+    }
+}
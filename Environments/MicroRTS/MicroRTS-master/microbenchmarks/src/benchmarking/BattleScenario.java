@@ -0,0 +1,93 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmarking;
+
+import ai.RandomScriptedAI;
+import ai.abstraction.pathfinding.AStarPathFinding;
+import ai.portfolio.portfoliogreedysearch.DependentUnitScript;
+import ai.portfolio.portfoliogreedysearch.Kiter;
+import ai.portfolio.portfoliogreedysearch.NOKAV;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import rts.GameState;
+import util.RandomSource;
+
+/**
+ * The game state that the benchmarks are run on, built from one of the
+ * battles in the battle database.
+ *
+ * The battle is played by two random scripted players until the given time,
+ * and then until player 0 can act, so that the state is one in which a search
+ * of player 0 would be started. The random numbers are seeded, so every trial
+ * gets the same state.
+ */
+@State(Scope.Thread)
+public class BattleScenario {
+    @Param({"4v4_2D-2B", "8v8_4D-4B", "16v16_8D-8B", "32v32_16D-16B", "48v48_24D-24B", "64v64_32D-32B"})
+    public String battle;
+
+    /**
+     * The number of cycles played before the state is taken.
+     */
+    @Param({"0"})
+    public int time;
+
+    /**
+     * The scripts of the players, the same ones as in the AI configs.
+     */
+    public List<DependentUnitScript> scripts;
+
+    /**
+     * A state in which player 0 can act.
+     */
+    public GameState gs;
+
+    /**
+     * The same state, with the actions of a random scripted player issued
+     * for both players, so that cycling it makes the units act.
+     */
+    public GameState playing;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SplittableRandom previous = RandomSource.install(new SplittableRandom(1));
+        try {
+            scripts = Arrays.asList(new NOKAV(new AStarPathFinding()), new Kiter(new AStarPathFinding(), 3));
+            RandomScriptedAI[] players = {new RandomScriptedAI(scripts), new RandomScriptedAI(scripts)};
+
+            BattleSettings bs = BattleFactory.MakeBattle(battle, 1);
+            gs = new GameState(bs.gameState.clone(), bs.utt);
+            boolean gameover = false;
+            while (!gameover && (gs.getTime() < time || !gs.canExecuteAnyAction(0))) {
+                issue(gs, players);
+                gameover = gs.cycle();
+            }
+            if (gameover) {
+                throw new IllegalStateException("The battle " + battle + " ends before cycle " + time + ".");
+            }
+
+            playing = gs.clone();
+            issue(playing, players);
+        }
+        finally {
+            RandomSource.install(previous);
+        }
+    }
+
+    private static void issue(GameState gs, RandomScriptedAI[] players) {
+        for (int player = 0; player < players.length; player++) {
+            if (gs.canExecuteAnyAction(player)) {
+                gs.issueSafe(players[player].getAction(player, gs));
+            }
+        }
+    }
+}
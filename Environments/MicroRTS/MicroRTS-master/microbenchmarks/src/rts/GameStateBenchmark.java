@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package rts;
+
+import benchmarking.BattleScenario;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures cloning a game state and advancing it by one cycle, which the
+ * searches do for every node they create and every cycle of their playouts.
+ *
+ * Every cycle is measured on a fresh clone of the scenario's state with the
+ * actions of both players issued, so that all the units act.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+    GameState cycled;
+
+    @Setup(Level.Invocation)
+    public void setUpCycle(BattleScenario scenario) {
+        cycled = scenario.playing.clone();
+    }
+
+    @Benchmark
+    public GameState cloneState(BattleScenario scenario) {
+        return scenario.gs.clone();
+    }
+
+    @Benchmark
+    public boolean cycle() {
+        return cycled.cycle();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package rts;
+
+import benchmarking.BattleScenario;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures generating the actions of player 0 in the scenario's state, the
+ * way the searches do when they expand a node and when they pick the random
+ * actions of a playout.
+ *
+ * Every measurement uses a new generator, created beforehand, since the
+ * generators remember the actions they have already returned. Creating it
+ * isn't measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptedActionGeneratorBenchmark {
+    ScriptedActionGenerator generator;
+
+    @Setup(Level.Invocation)
+    public void setUpGenerator(BattleScenario scenario) throws Exception {
+        generator = new ScriptedActionGenerator(scenario.gs, scenario.scripts, 0, new HashMap<>());
+    }
+
+    /**
+     * The first action of a generator, which is the one that every expanded
+     * node needs.
+     */
+    @Benchmark
+    public PlayerAction getNextAction() throws Exception {
+        return generator.getNextAction(0);
+    }
+
+    @Benchmark
+    public PlayerAction getRandom() {
+        return generator.getRandom();
+    }
+}
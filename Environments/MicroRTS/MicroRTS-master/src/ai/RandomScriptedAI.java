@@ -39,6 +39,13 @@ public class RandomScriptedAI extends AI {
      */
     Map<Long, UpdateableAbstractAction> abstractActions;  
     
+    /**
+     * Scratch space of getActionInPlace, kept so that it isn't allocated
+     * for every decision.
+     */
+    private final Map<Long, Integer> assignedDamage = new HashMap<>();
+    private final Map<Long, UpdateableAbstractAction> newAbstractActions = new HashMap<>();
+    
     public RandomScriptedAI(UnitTypeTable utt) {
         scripts = new ArrayList<>();
         scripts.add(new NOKAV(new AStarPathFinding()));
@@ -60,6 +67,17 @@ public class RandomScriptedAI extends AI {
         this.abstractActions.putAll(UpdateableAbstractAction.copyAll(abstractActions));
     }
     
+    /**
+     * Replaces the assigned updateable abstract actions with copies of the
+     * given ones, reusing the map, so that one instance can play many playouts.
+     */
+    public void resetAbstractActions(Map<Long, UpdateableAbstractAction> abstractActions) {
+        this.abstractActions.clear();
+        for (Map.Entry<Long, UpdateableAbstractAction> e : abstractActions.entrySet()) {
+            this.abstractActions.put(e.getKey(), e.getValue().clone());
+        }
+    }
+    
     @Override
     public void reset() {
         abstractActions = new HashMap<>();
@@ -72,31 +90,38 @@ public class RandomScriptedAI extends AI {
    
     @Override
     public PlayerAction getAction(int player, GameState gs) {
+        return getEquivalentPA(getActionInPlace(player, gs.clone()), gs);
+    }
+    
+    /**
+     * Computes the action that getAction would return, but in the given state
+     * instead of in a clone of it. The actions are issued in the state while
+     * they are picked, and the state is rolled back before returning (see
+     * GameState.mark), so the returned action refers to the units of the given
+     * state and can be issued in it directly. Used by the playouts, which call
+     * it for every decision.
+     */
+    public PlayerAction getActionInPlace(int player, GameState gs) {
+        if (!gs.canExecuteAnyAction(player)) return new PlayerAction();
+        gs.mark();
         try {
-            GameState gsClone = gs.clone();
-            
-            if (!gsClone.canExecuteAnyAction(player)) return new PlayerAction();
             PlayerAction initialAssignment = new PlayerAction();
         
             // Remove all the updateable abstract actions for which the
             // corresponding units have been destroyed.
-            List<Long> keys = new ArrayList<>(abstractActions.keySet());
-            for (Long id : keys) {
-                if (gsClone.getUnit(id) == null) {
-                    abstractActions.remove(id);
-                }
-            }
+            abstractActions.keySet().removeIf(id -> gs.getUnit(id) == null);
 
             // Assign actions based on the map of assigned updateable abstract
             // actions.
-            for (Unit u : gsClone.getUnits()) {
-                if (abstractActions.containsKey(u.getID()) && gsClone.getUnitAction(u) == null) {                  
-                    abstractActions.get(u.getID()).update(gsClone);
+            for (Unit u : gs.getUnits()) {
+                UpdateableAbstractAction uaa = abstractActions.get(u.getID());
+                if (uaa != null && gs.getUnitAction(u) == null) {                  
+                    uaa.update(gs);
                     
                     // If the updateable abstract action hasn't been completed yet,
                     // try to use it to pick an action for the given unit.
-                    if (!abstractActions.get(u.getID()).completed(gsClone)) {
-                        UnitAction ua = abstractActions.get(u.getID()).execute(gsClone);
+                    if (!uaa.completed(gs)) {
+                        UnitAction ua = uaa.execute(gs);
                         if (ua == null) {
                             abstractActions.remove(u.getID());
                         }
@@ -112,38 +137,27 @@ public class RandomScriptedAI extends AI {
             }
             
             // Issue the actions that were picked in the previous cycle.
-            gsClone.issue(initialAssignment);
+            gs.issue(initialAssignment);
 
             // If there aren't anymore units with no actions assigned, return.
-            if (!gsClone.canExecuteAnyAction(player)) {
-                return getEquivalentPA(initialAssignment, gs);
-            }
-
-            // Compute the damage that has been assigned to enemy units thus far.
-            Map<Long, Integer> assignedDamage = new HashMap<>();
-            for (Long id : abstractActions.keySet()) {
-                Pair<Unit, Integer> ad = ((UpdateableAbstractAction)abstractActions.get(id)).getAssignedDamage();            
-                
-                if (assignedDamage.containsKey(ad.m_a.getID())) {
-                    assignedDamage.put(ad.m_a.getID(), assignedDamage.get(ad.m_a.getID()) + ad.m_b);
-                }
-                else {
-                    assignedDamage.put(ad.m_a.getID(), ad.m_b);
-                }
+            if (!gs.canExecuteAnyAction(player)) {
+                return initialAssignment;
             }
             
-            // Get random updateable abstract actions from a script action generator.
-            ScriptedActionGenerator sag = new ScriptedActionGenerator(gsClone, scripts, player, assignedDamage);
-            PlayerAction result = sag.getRandom();
-            abstractActions.putAll(sag.getCorrespondingUAAs(result));
-            return getEquivalentPA(result.merge(initialAssignment), gs);
+            // Get random updateable abstract actions for the remaining units.
+            newAbstractActions.clear();
+            PlayerAction result = ScriptedActionGenerator.issueRandom(gs, scripts, player, assignedDamage, newAbstractActions);
+            abstractActions.putAll(newAbstractActions);
+            return result.merge(initialAssignment);
         }catch(Exception e) {
-            // The only way the player action generator returns an exception is if there are no units that
-            // can execute actions, in this case, just return an empty action:
-            // However, this should never happen, since we are checking for this at the beginning      
+            // Scripts are not expected to throw, but if one does, just return
+            // an empty action, as the generator used to do:
             e.printStackTrace();
             return new PlayerAction();
         }
+        finally {
+            gs.rollback();
+        }
     }
     
     /**
@@ -54,18 +54,18 @@ public class UpdateableAttackOnce extends UpdateableAbstractAction {
     /**
      * A private constructor used only for cloning.
      */
-    private UpdateableAttackOnce(Unit u, Unit a_target, PathFinding a_pf, boolean finished, int time, UnitAction last) {
+    private UpdateableAttackOnce(Unit u, Unit a_target, PathFinding a_pf, int targetHP, boolean finished, int time, UnitAction last) {
         super(u);
         target = a_target;
         pf = a_pf;
-        targetHP = target.getHitPoints();
+        this.targetHP = targetHP;
         this.finished = finished;
         timeOfAssignment = time;
         lastAssignedAction = last;
     }
     
     public UpdateableAbstractAction clone() {
-        return new UpdateableAttackOnce(unit, target, pf, finished, timeOfAssignment, lastAssignedAction);
+        return new UpdateableAttackOnce(unit, target, pf, targetHP, finished, timeOfAssignment, lastAssignedAction);
     }
     
     @Override
@@ -100,6 +100,14 @@ public class UpdateableAttackOnce extends UpdateableAbstractAction {
         UpdateableAttackOnce a = (UpdateableAttackOnce)o;
         return unit.getID() == a.unit.getID() && target.getID() == a.target.getID() && pf.getClass() == a.pf.getClass();
     }
+    
+    @Override
+    public int hashCode()
+    {
+        int hash = Long.hashCode(unit.getID());
+        hash = 31 * hash + (target == null ? 0 : Long.hashCode(target.getID()));
+        return 31 * hash + pf.getClass().hashCode();
+    }
 
     
     public void toxml(XMLWriter w)
@@ -49,6 +49,15 @@ public class UpdateableMove extends UpdateableAbstractAction {
         UpdateableMove a = (UpdateableMove)o;
         return unit.getID() == a.unit.getID() && x == a.x && y == a.y && pf.getClass() == a.pf.getClass();
     }
+    
+    @Override
+    public int hashCode()
+    {
+        int hash = Long.hashCode(unit.getID());
+        hash = 31 * hash + x;
+        hash = 31 * hash + y;
+        return 31 * hash + pf.getClass().hashCode();
+    }
 
     
     public void toxml(XMLWriter w)
@@ -26,14 +26,35 @@ public class AStarPathFinding extends PathFinding {
     public static int iterations = 0;   // this is a debugging variable    
     public static int accumlength = 0;   // this is a debugging variable    
     
-    Boolean free[][];
-    int closed[];
-    int open[];  // open list
-    int heuristic[];     // heuristic value of the elements in 'open'
-    int parents[];
-    int cost[];     // cost of reaching a given position so far
-    int inOpenOrClosed[];
-    int openinsert = 0;
+    /**
+     * The data structures used by one search. They are kept per thread, so that
+     * the same instance can be shared by scripts that are used by several games
+     * or search threads at the same time.
+     */
+    static class SearchBuffers {
+        Boolean free[][];
+        int closed[];
+        int open[];  // open list
+        int heuristic[];     // heuristic value of the elements in 'open'
+        int parents[];
+        int cost[];     // cost of reaching a given position so far
+        int inOpenOrClosed[];
+        int openinsert = 0;
+        
+        void reserve(int w, int h) {
+            if (free==null || free.length<w || free[0].length<h || closed.length<w*h) {
+                free = new Boolean[w][h];        
+                closed = new int[w*h];
+                open = new int[w*h];
+                heuristic = new int[w*h];
+                parents = new int[w*h];
+                inOpenOrClosed = new int[w*h];
+                cost = new int[w*h];
+            }
+        }
+    }
+    
+    final ThreadLocal<SearchBuffers> buffers = ThreadLocal.withInitial(SearchBuffers::new);
     
     
     // This fucntion finds the shortest path from 'start' to 'targetpos' and then returns
@@ -51,15 +72,15 @@ public class AStarPathFinding extends PathFinding {
         PhysicalGameState pgs = gs.getPhysicalGameState();
         int w = pgs.getWidth();
         int h = pgs.getHeight();
-        if (free==null || free.length<w*h) {
-            free = new Boolean[w][h];        
-            closed = new int[w*h];
-            open = new int[w*h];
-            heuristic = new int[w*h];
-            parents = new int[w*h];
-            inOpenOrClosed = new int[w*h];
-            cost = new int[w*h];
-        }
+        SearchBuffers b = buffers.get();
+        b.reserve(w, h);
+        Boolean free[][] = b.free;
+        int closed[] = b.closed;
+        int open[] = b.open;
+        int heuristic[] = b.heuristic;
+        int parents[] = b.parents;
+        int cost[] = b.cost;
+        int inOpenOrClosed[] = b.inOpenOrClosed;
         for(int y = 0, i = 0;y<h;y++) {
             for(int x = 0;x<w;x++,i++) {
                 free[x][y] = null;
@@ -86,20 +107,20 @@ public class AStarPathFinding extends PathFinding {
         assert(start.getY()>=0);
         assert(start.getY()<h);
         
-        openinsert = 0;
-        open[openinsert] = startPos;
-        heuristic[openinsert] = manhattanDistance(start.getX(), start.getY(), targetx, targety);
-        parents[openinsert] = startPos;
+        b.openinsert = 0;
+        open[b.openinsert] = startPos;
+        heuristic[b.openinsert] = manhattanDistance(start.getX(), start.getY(), targetx, targety);
+        parents[b.openinsert] = startPos;
         inOpenOrClosed[startPos] = 1;
         cost[startPos] = 0;
-        openinsert++;
+        b.openinsert++;
 //        System.out.println("Looking for path from: " + start.getX() + "," + start.getY() + " to " + targetx + "," + targety);
-        while(openinsert>0) {
+        while(b.openinsert>0) {
             
             // debugging code:
             /*
             System.out.println("open: ");
-            for(int i = 0;i<openinsert;i++) {
+            for(int i = 0;i<b.openinsert;i++) {
                 System.out.print(" [" + (open[i]%w) + "," + (open[i]/w) + " -> "+ cost[open[i]] + "+" + heuristic[i] + "]");
             }
             System.out.println("");
@@ -123,9 +144,9 @@ public class AStarPathFinding extends PathFinding {
             }
             */
             iterations++;
-            openinsert--;
-            int pos = open[openinsert];
-            int parent = parents[openinsert];
+            b.openinsert--;
+            int pos = open[b.openinsert];
+            int parent = parents[b.openinsert];
             if (closed[pos]!=-1) continue;            
             closed[pos] = parent;
 
@@ -153,28 +174,28 @@ public class AStarPathFinding extends PathFinding {
                 if (free[x][y-1]==null) free[x][y-1]=gs.free(x, y-1);
                 assert(free[x][y-1]!=null);
                 if (free[x][y-1]) {
-                    addToOpen(x,y-1,pos-w,pos,manhattanDistance(x, y-1, targetx, targety));
+                    addToOpen(b,x,y-1,pos-w,pos,manhattanDistance(x, y-1, targetx, targety));
                 }
             }
             if (x<pgs.getWidth()-1 && inOpenOrClosed[pos+1] == 0) {
                 if (free[x+1][y]==null) free[x+1][y]=gs.free(x+1, y);
                 assert(free[x+1][y]!=null);
                 if (free[x+1][y]) {
-                    addToOpen(x+1,y,pos+1,pos,manhattanDistance(x+1, y, targetx, targety));
+                    addToOpen(b,x+1,y,pos+1,pos,manhattanDistance(x+1, y, targetx, targety));
                 }
             }
             if (y<pgs.getHeight()-1 && inOpenOrClosed[pos+w] == 0) {
                 if (free[x][y+1]==null) free[x][y+1]=gs.free(x, y+1);
                 assert(free[x][y+1]!=null);
                 if (free[x][y+1]) {
-                    addToOpen(x,y+1,pos+w,pos,manhattanDistance(x, y+1, targetx, targety));
+                    addToOpen(b,x,y+1,pos+w,pos,manhattanDistance(x, y+1, targetx, targety));
                 }
             }
             if (x>0 && inOpenOrClosed[pos-1] == 0) {
                 if (free[x-1][y]==null) free[x-1][y]=gs.free(x-1, y);
                 assert(free[x-1][y]!=null);
                 if (free[x-1][y]) {
-                    addToOpen(x-1,y,pos-1,pos,manhattanDistance(x-1, y, targetx, targety));
+                    addToOpen(b,x-1,y,pos-1,pos,manhattanDistance(x-1, y, targetx, targety));
                 }
             }              
         }
@@ -204,7 +225,13 @@ public class AStarPathFinding extends PathFinding {
     }
     
     // and keep the "open" list sorted:
-    void addToOpen(int x, int y, int newPos, int oldPos, int h) {
+    void addToOpen(SearchBuffers b, int x, int y, int newPos, int oldPos, int h) {
+        int open[] = b.open;
+        int heuristic[] = b.heuristic;
+        int parents[] = b.parents;
+        int cost[] = b.cost;
+        int inOpenOrClosed[] = b.inOpenOrClosed;
+        int openinsert = b.openinsert;
         cost[newPos] = cost[oldPos]+1;
         
         // find the right position for the insert:
@@ -222,7 +249,7 @@ public class AStarPathFinding extends PathFinding {
                 open[i+1] = newPos;
                 heuristic[i+1] = h;
                 parents[i+1] = oldPos;
-                openinsert++;
+                b.openinsert = openinsert+1;
                 inOpenOrClosed[newPos] = 1;
                 return;
             }
@@ -240,7 +267,7 @@ public class AStarPathFinding extends PathFinding {
         open[0] = newPos;
         heuristic[0] = h;
         parents[0] = oldPos;
-        openinsert++;
+        b.openinsert = openinsert+1;
         inOpenOrClosed[newPos] = 1;
     }
     
@@ -253,15 +280,15 @@ public class AStarPathFinding extends PathFinding {
         PhysicalGameState pgs = gs.getPhysicalGameState();
         int w = pgs.getWidth();
         int h = pgs.getHeight();
-        if (free==null || free.length<w*h) {
-            free = new Boolean[pgs.getWidth()][pgs.getHeight()];        
-            closed = new int[pgs.getWidth()*pgs.getHeight()];
-            open = new int[pgs.getWidth()*pgs.getHeight()];
-            heuristic = new int[pgs.getWidth()*pgs.getHeight()];
-            parents = new int[pgs.getWidth()*pgs.getHeight()];
-            inOpenOrClosed = new int[pgs.getWidth()*pgs.getHeight()];
-            cost = new int[pgs.getWidth()*pgs.getHeight()];
-        }
+        SearchBuffers b = buffers.get();
+        b.reserve(w, h);
+        Boolean free[][] = b.free;
+        int closed[] = b.closed;
+        int open[] = b.open;
+        int heuristic[] = b.heuristic;
+        int parents[] = b.parents;
+        int cost[] = b.cost;
+        int inOpenOrClosed[] = b.inOpenOrClosed;
         for(int y = 0, i = 0;y<pgs.getHeight();y++) {
             for(int x = 0;x<w;x++,i++) {
                 free[x][y] = null;
@@ -288,20 +315,20 @@ public class AStarPathFinding extends PathFinding {
         assert(start.getY()>=0);
         assert(start.getY()<h);
         
-        openinsert = 0;
-        open[openinsert] = startPos;
-        heuristic[openinsert] = manhattanDistance(start.getX(), start.getY(), targetx, targety);
-        parents[openinsert] = startPos;
+        b.openinsert = 0;
+        open[b.openinsert] = startPos;
+        heuristic[b.openinsert] = manhattanDistance(start.getX(), start.getY(), targetx, targety);
+        parents[b.openinsert] = startPos;
         inOpenOrClosed[startPos] = 1;
         cost[startPos] = 0;
-        openinsert++;
+        b.openinsert++;
 //        System.out.println("Looking for path from: " + start.getX() + "," + start.getY() + " to " + targetx + "," + targety);
-        while(openinsert>0) {
+        while(b.openinsert>0) {
             
             // debugging code:
             /*
             System.out.println("open: ");
-            for(int i = 0;i<openinsert;i++) {
+            for(int i = 0;i<b.openinsert;i++) {
                 System.out.print(" [" + (open[i]%w) + "," + (open[i]/w) + " -> "+ cost[open[i]] + "+" + heuristic[i] + "]");
             }
             System.out.println("");
@@ -325,9 +352,9 @@ public class AStarPathFinding extends PathFinding {
             }
             */
             iterations++;
-            openinsert--;
-            int pos = open[openinsert];
-            int parent = parents[openinsert];
+            b.openinsert--;
+            int pos = open[b.openinsert];
+            int parent = parents[b.openinsert];
             if (closed[pos]!=-1) continue;            
             closed[pos] = parent;
 
@@ -352,28 +379,28 @@ public class AStarPathFinding extends PathFinding {
                 if (free[x][y-1]==null) free[x][y-1]=gs.free(x, y-1);
                 assert(free[x][y-1]!=null);
                 if (free[x][y-1]) {
-                    addToOpen(x,y-1,pos-w,pos,manhattanDistance(x, y-1, targetx, targety));
+                    addToOpen(b,x,y-1,pos-w,pos,manhattanDistance(x, y-1, targetx, targety));
                 }
             }
             if (x<pgs.getWidth()-1 && inOpenOrClosed[pos+1] == 0) {
                 if (free[x+1][y]==null) free[x+1][y]=gs.free(x+1, y);
                 assert(free[x+1][y]!=null);
                 if (free[x+1][y]) {
-                    addToOpen(x+1,y,pos+1,pos,manhattanDistance(x+1, y, targetx, targety));
+                    addToOpen(b,x+1,y,pos+1,pos,manhattanDistance(x+1, y, targetx, targety));
                 }
             }
             if (y<pgs.getHeight()-1 && inOpenOrClosed[pos+w] == 0) {
                 if (free[x][y+1]==null) free[x][y+1]=gs.free(x, y+1);
                 assert(free[x][y+1]!=null);
                 if (free[x][y+1]) {
-                    addToOpen(x,y+1,pos+w,pos,manhattanDistance(x, y+1, targetx, targety));
+                    addToOpen(b,x,y+1,pos+w,pos,manhattanDistance(x, y+1, targetx, targety));
                 }
             }
             if (x>0 && inOpenOrClosed[pos-1] == 0) {
                 if (free[x-1][y]==null) free[x-1][y]=gs.free(x-1, y);
                 assert(free[x-1][y]!=null);
                 if (free[x-1][y]) {
-                    addToOpen(x-1,y,pos-1,pos,manhattanDistance(x-1, y, targetx, targety));
+                    addToOpen(b,x-1,y,pos-1,pos,manhattanDistance(x-1, y, targetx, targety));
                 }
             }              
         }
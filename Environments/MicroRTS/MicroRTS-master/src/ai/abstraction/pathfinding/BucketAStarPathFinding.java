@@ -0,0 +1,245 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.abstraction.pathfinding;
+
+import java.util.Arrays;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/**
+ * A* pathfinding that finds exactly the same paths as {@link AStarPathFinding},
+ * but is faster on bigger maps.
+ *
+ * The open list is a bucket queue indexed by f = cost + heuristic, which are
+ * small integers. Each bucket is a stack, so that among the positions with the
+ * same f the one added last is expanded first, as in the sorted open list of
+ * {@link AStarPathFinding}. Since the Manhattan distance is consistent, f never
+ * decreases during the search and the lowest non-empty bucket can be found by
+ * moving forward. Pushing and popping are therefore O(1) instead of O(n).
+ *
+ * The search buffers are stamped with the number of the search that last wrote
+ * them, so they never need to be cleared.
+ */
+public class BucketAStarPathFinding extends PathFinding {
+
+    /**
+     * The data structures used by one search. They are kept per thread, so that
+     * the same instance can be shared by several games or search threads.
+     */
+    static class SearchBuffers {
+        /**
+         * The number of the current search. A position belongs to the current
+         * search only if its stamp is equal to it.
+         */
+        int generation = 0;
+
+        int seen[];         // stamp of the positions that were added to the open list
+        int closed[];       // stamp of the positions that were expanded
+        int parents[];      // the position from which a position was reached
+        int cost[];         // cost of reaching a position
+        int next[];         // the next position in the same bucket
+        int freeStamp[];    // stamp of the positions whose entry in 'free' is valid
+        boolean free[];
+        int bucketStamp[];  // stamp of the buckets whose head is valid
+        int bucketHead[];   // the last position pushed to a bucket, -1 if it is empty
+
+        void reserve(int positions, int buckets) {
+            if (seen==null || seen.length<positions) {
+                seen = new int[positions];
+                closed = new int[positions];
+                parents = new int[positions];
+                cost = new int[positions];
+                next = new int[positions];
+                freeStamp = new int[positions];
+                free = new boolean[positions];
+            }
+            if (bucketStamp==null || bucketStamp.length<buckets) {
+                bucketStamp = new int[buckets];
+                bucketHead = new int[buckets];
+            }
+        }
+
+        /**
+         * Starts a new search, invalidating everything written by the previous ones.
+         */
+        int nextGeneration() {
+            if (generation==Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                Arrays.fill(closed, 0);
+                Arrays.fill(freeStamp, 0);
+                Arrays.fill(bucketStamp, 0);
+                generation = 0;
+            }
+            return ++generation;
+        }
+    }
+
+    final ThreadLocal<SearchBuffers> buffers = ThreadLocal.withInitial(SearchBuffers::new);
+
+
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return findPathToPositionInRange(start, targetpos, 0, gs, ru);
+    }
+
+
+    /*
+     * Finds a path to a position that is at most 'range' far away from 'target'
+     * and returns the first step of it.
+     */
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        SearchBuffers b = buffers.get();
+        int pos = search(b, start, targetpos, range, gs, ru);
+        if (pos==-1) return null;
+
+        // path found, backtrack:
+        int w = gs.getPhysicalGameState().getWidth();
+        int[] parents = b.parents;
+        int last = pos;
+        int parent = parents[pos];
+        while(parent!=pos) {
+            last = pos;
+            pos = parent;
+            parent = parents[pos];
+        }
+        if (last == pos+w) return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_DOWN);
+        if (last == pos-1) return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_LEFT);
+        if (last == pos-w) return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_UP);
+        if (last == pos+1) return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_RIGHT);
+        return null;
+    }
+
+
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return findPathToPositionInRange(start, targetpos, 1, gs, ru);
+    }
+
+
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return start.getPosition(gs.getPhysicalGameState()) == targetpos
+            || findPath(start, targetpos, gs, ru) != null;
+    }
+
+
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        int x = targetpos%gs.getPhysicalGameState().getWidth();
+        int y = targetpos/gs.getPhysicalGameState().getWidth();
+        int d = (x-start.getX())*(x-start.getX()) + (y-start.getY())*(y-start.getY());
+        return d <= range * range
+            || findPathToPositionInRange(start, targetpos, range, gs, ru) != null;
+    }
+
+
+    /**
+     * Returns the length of the path to a position that is at most 'range'
+     * far away from 'target', or -1 if there is none.
+     */
+    public int findDistToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        SearchBuffers b = buffers.get();
+        int pos = search(b, start, targetpos, range, gs, ru);
+        if (pos==-1) return -1;
+        return b.cost[pos];
+    }
+
+
+    /**
+     * Runs the search and returns the first expanded position that is in range
+     * of the target, or -1 if there is none. The parent and the cost of each
+     * reached position are left in the buffers.
+     */
+    int search(SearchBuffers b, Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        int w = pgs.getWidth();
+        int h = pgs.getHeight();
+        // f is at most the length of the longest path plus the largest heuristic
+        b.reserve(w*h, w*h+w+h+1);
+        int generation = b.nextGeneration();
+        int seen[] = b.seen;
+        int closed[] = b.closed;
+        int parents[] = b.parents;
+        int cost[] = b.cost;
+        int next[] = b.next;
+        int freeStamp[] = b.freeStamp;
+        boolean free[] = b.free;
+        int bucketStamp[] = b.bucketStamp;
+        int bucketHead[] = b.bucketHead;
+
+        if (ru!=null) {
+            for(int pos:ru.getPositionsUsed()) {
+                freeStamp[pos] = generation;
+                free[pos] = false;
+            }
+        }
+        int targetx = targetpos%w;
+        int targety = targetpos/w;
+        int sq_range = range*range;
+        int startPos = start.getY()*w + start.getX();
+
+        assert(targetx>=0);
+        assert(targetx<w);
+        assert(targety>=0);
+        assert(targety<h);
+        assert(start.getX()>=0);
+        assert(start.getX()<w);
+        assert(start.getY()>=0);
+        assert(start.getY()<h);
+
+        int f = manhattanDistance(start.getX(), start.getY(), targetx, targety);
+        seen[startPos] = generation;
+        parents[startPos] = startPos;
+        cost[startPos] = 0;
+        bucketStamp[f] = generation;
+        bucketHead[f] = startPos;
+        next[startPos] = -1;
+        int open = 1;
+
+        while(open>0) {
+            while(bucketStamp[f]!=generation || bucketHead[f]==-1) f++;
+            int pos = bucketHead[f];
+            bucketHead[f] = next[pos];
+            open--;
+            if (closed[pos]==generation) continue;
+            closed[pos] = generation;
+
+            int x = pos%w;
+            int y = pos/w;
+
+            if (((x-targetx)*(x-targetx)+(y-targety)*(y-targety))<=sq_range) return pos;
+
+            // the neighbors are added in the same order as in AStarPathFinding
+            int c = cost[pos]+1;
+            int neighbors[] = {y>0 ? pos-w : -1, x<w-1 ? pos+1 : -1, y<h-1 ? pos+w : -1, x>0 ? pos-1 : -1};
+            for(int newPos:neighbors) {
+                if (newPos==-1 || seen[newPos]==generation) continue;
+                if (freeStamp[newPos]!=generation) {
+                    freeStamp[newPos] = generation;
+                    free[newPos] = gs.free(newPos%w, newPos/w);
+                }
+                if (!free[newPos]) continue;
+
+                int newF = c + manhattanDistance(newPos%w, newPos/w, targetx, targety);
+                seen[newPos] = generation;
+                parents[newPos] = pos;
+                cost[newPos] = c;
+                if (bucketStamp[newF]!=generation) {
+                    bucketStamp[newF] = generation;
+                    bucketHead[newF] = -1;
+                }
+                next[newPos] = bucketHead[newF];
+                bucketHead[newF] = newPos;
+                open++;
+            }
+        }
+        return -1;
+    }
+
+
+    int manhattanDistance(int x, int y, int x2, int y2) {
+        return Math.abs(x-x2) + Math.abs(y-y2);
+    }
+}
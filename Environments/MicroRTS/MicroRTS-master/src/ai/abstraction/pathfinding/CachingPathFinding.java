@@ -0,0 +1,348 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.abstraction.pathfinding;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+import static util.Hashing.mix;
+
+/**
+ * A pathfinding that remembers the answers of another one.
+ *
+ * The answer of a query only depends on the start position, the target, the
+ * range and on which positions are free, so queries are looked up by those.
+ * The free positions are summarized by a 64 bit hash of the terrain, of the
+ * positions of the units, of the positions that will be used by the move and
+ * produce actions that are being executed, and of the positions used by the
+ * ResourceUsage. Computing it is linear in the number of units, which is much
+ * cheaper than a search, and a playout asks the same queries again and again
+ * while units walk towards their targets.
+ *
+ * At most a given number of answers is kept, and the least recently used ones
+ * are dropped. The cache can be shared by several threads, so one instance can
+ * be used by the scripts of all the trees of a search, and of all the games
+ * that a player plays at the same time. It is split in stripes by the hash of
+ * the queries, each with its own lock and its own share of the capacity, so
+ * the threads rarely wait for each other.
+ */
+public class CachingPathFinding extends PathFinding {
+
+    static final int FIND_PATH = 0;
+    static final int FIND_PATH_IN_RANGE = 1;
+    static final int FIND_PATH_TO_ADJACENT = 2;
+    static final int PATH_EXISTS = 3;
+    static final int PATH_IN_RANGE_EXISTS = 4;
+
+    /**
+     * Stored instead of null, to tell the queries without a path from those
+     * that are not in the cache.
+     */
+    static final Object NO_PATH = new Object();
+
+    /**
+     * Added to the positions before mixing them, so that the units, the
+     * actions and the ResourceUsage don't produce the same values.
+     */
+    static final long UNITS = 0x9e3779b97f4a7c15L;
+    static final long ACTIONS = 0x3c6ef372fe94f82aL;
+    static final long RESOURCES = 0xdaa66d2c7ddf743fL;
+
+    /**
+     * The number of stripes. A power of two.
+     */
+    static final int STRIPES = 16;
+
+    /**
+     * A query to the pathfinding.
+     */
+    static final class Query {
+        final int kind;
+        final int start;
+        final int target;
+        final int range;
+        final long occupancy;
+
+        Query(int kind, int start, int target, int range, long occupancy) {
+            this.kind = kind;
+            this.start = start;
+            this.target = target;
+            this.range = range;
+            this.occupancy = occupancy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Query)) return false;
+            Query q = (Query)o;
+            return kind==q.kind && start==q.start && target==q.target &&
+                   range==q.range && occupancy==q.occupancy;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = (int)(occupancy ^ (occupancy>>>32));
+            h = 31*h + start;
+            h = 31*h + target;
+            return 31*h + (range<<3 | kind);
+        }
+    }
+
+    /**
+     * The hash of the last terrain that was seen. The terrain of a map never
+     * changes and is shared by all the clones of its state, so it only needs
+     * to be hashed again when the map changes.
+     */
+    static final class TerrainHash {
+        final int[] terrain;
+        final long hash;
+
+        TerrainHash(int[] terrain, int width, int height) {
+            long h = mix(width*31L + height);
+            for(int i = 0;i<terrain.length;i++) {
+                if (terrain[i]!=PhysicalGameState.TERRAIN_NONE) h = mix(h + i);
+            }
+            this.terrain = terrain;
+            this.hash = h;
+        }
+    }
+
+    /**
+     * A stripe of the cache: the least recently used answers of the queries
+     * whose hash selects it. Accessed while holding its lock.
+     */
+    static final class Stripe extends LinkedHashMap<Query, Object> {
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+        long hits = 0;
+        long misses = 0;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Query, Object> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    PathFinding pf;
+    final int capacity;
+    final Stripe[] stripes = new Stripe[STRIPES];
+    volatile TerrainHash lastTerrain;
+
+    public CachingPathFinding(PathFinding a_pf, int a_capacity) {
+        pf = a_pf;
+        capacity = Math.max(1, a_capacity);
+        for(int i = 0;i<STRIPES;i++) {
+            // the first stripes take the remainder of the division
+            stripes[i] = new Stripe(Math.max(1, capacity/STRIPES + (i < capacity%STRIPES ? 1 : 0)));
+        }
+    }
+
+
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        Query q = query(PATH_EXISTS, start, targetpos, 0, gs, ru);
+        Object answer = lookup(q);
+        if (answer==null) {
+            answer = pf.pathExists(start, targetpos, gs, ru);
+            store(q, answer);
+        }
+        return (Boolean)answer;
+    }
+
+
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        Query q = query(PATH_IN_RANGE_EXISTS, start, targetpos, range, gs, ru);
+        Object answer = lookup(q);
+        if (answer==null) {
+            answer = pf.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+            store(q, answer);
+        }
+        return (Boolean)answer;
+    }
+
+
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        Query q = query(FIND_PATH, start, targetpos, 0, gs, ru);
+        Object answer = lookup(q);
+        if (answer==null) {
+            answer = pf.findPath(start, targetpos, gs, ru);
+            store(q, answer);
+        }
+        return copy(answer);
+    }
+
+
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        Query q = query(FIND_PATH_IN_RANGE, start, targetpos, range, gs, ru);
+        Object answer = lookup(q);
+        if (answer==null) {
+            answer = pf.findPathToPositionInRange(start, targetpos, range, gs, ru);
+            store(q, answer);
+        }
+        return copy(answer);
+    }
+
+
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        Query q = query(FIND_PATH_TO_ADJACENT, start, targetpos, 1, gs, ru);
+        Object answer = lookup(q);
+        if (answer==null) {
+            answer = pf.findPathToAdjacentPosition(start, targetpos, gs, ru);
+            store(q, answer);
+        }
+        return copy(answer);
+    }
+
+
+    public PathFinding getPathFinding() {
+        return pf;
+    }
+
+
+    public long getHits() {
+        long hits = 0;
+        for(Stripe s:stripes) {
+            synchronized(s) {
+                hits += s.hits;
+            }
+        }
+        return hits;
+    }
+
+
+    public long getMisses() {
+        long misses = 0;
+        for(Stripe s:stripes) {
+            synchronized(s) {
+                misses += s.misses;
+            }
+        }
+        return misses;
+    }
+
+
+    public int size() {
+        int size = 0;
+        for(Stripe s:stripes) {
+            synchronized(s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+
+    public void clear() {
+        for(Stripe s:stripes) {
+            synchronized(s) {
+                s.clear();
+                s.hits = 0;
+                s.misses = 0;
+            }
+        }
+    }
+
+
+    public String statisticsString() {
+        long hits = getHits();
+        long misses = getMisses();
+        long total = hits + misses;
+        return "path cache: " + size() + "/" + capacity + " entries, " + hits + " hits, " + misses + " misses" +
+               (total>0 ? String.format(" (%.1f%% hits)", 100.0*hits/total) : "");
+    }
+
+
+    public String toString() {
+        return getClass().getSimpleName() + "(" + pf + ")";
+    }
+
+
+    Object lookup(Query q) {
+        Stripe s = stripe(q);
+        synchronized(s) {
+            Object answer = s.get(q);
+            if (answer==null) {
+                s.misses++;
+            } else {
+                s.hits++;
+            }
+            return answer;
+        }
+    }
+
+
+    void store(Query q, Object answer) {
+        Stripe s = stripe(q);
+        synchronized(s) {
+            s.put(q, answer==null ? NO_PATH : answer);
+        }
+    }
+
+
+    Stripe stripe(Query q) {
+        int h = q.hashCode();
+        return stripes[(h ^ (h>>>16)) & (STRIPES-1)];
+    }
+
+
+    /**
+     * The stored actions are copied, so that callers cannot change them.
+     */
+    UnitAction copy(Object answer) {
+        if (answer==null || answer==NO_PATH) return null;
+        return new UnitAction((UnitAction)answer);
+    }
+
+
+    Query query(int kind, Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        return new Query(kind, start.getX() + start.getY()*pgs.getWidth(), targetpos, range, occupancy(gs, ru));
+    }
+
+
+    /**
+     * Hashes everything that is checked to decide whether a position is free.
+     * Positions are combined with a sum of their mixed values, so the order
+     * in which the units and actions are visited doesn't matter.
+     */
+    long occupancy(GameState gs, ResourceUsage ru) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        int w = pgs.getWidth();
+        TerrainHash th = lastTerrain;
+        if (th==null || th.terrain!=pgs.getTerrain()) {
+            th = new TerrainHash(pgs.getTerrain(), w, pgs.getHeight());
+            lastTerrain = th;
+        }
+
+        long h = 0;
+        for(Unit u:pgs.getUnits()) {
+            h += mix(UNITS + u.getX() + u.getY()*w);
+        }
+        for(UnitActionAssignment uaa:gs.getUnitActions().values()) {
+            int type = uaa.action.getType();
+            if (type==UnitAction.TYPE_MOVE || type==UnitAction.TYPE_PRODUCE) {
+                // the direction is part of the hash, as the target might be out of the map
+                h += mix(ACTIONS + ((uaa.unit.getX() + uaa.unit.getY()*w)<<2) + uaa.action.getDirection());
+            }
+        }
+        if (ru!=null) {
+            for(int pos:ru.getPositionsUsed()) {
+                h += mix(RESOURCES + pos);
+            }
+        }
+        return mix(th.hash ^ h);
+    }
+}
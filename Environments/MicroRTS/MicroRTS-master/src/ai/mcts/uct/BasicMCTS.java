@@ -8,9 +8,10 @@ import ai.core.AI;
 import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.units.UnitTypeTable;
@@ -29,22 +30,46 @@ import java.util.Map;
 import java.util.HashMap;
 import rts.UnitAction;
 import util.Pair;
-import java.io.PrintStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import util.RandomSource;
+import util.ThreadUsage;
+import java.io.IOException;
 import java.io.File;
 import ai.RandomScriptedAI;
 import ai.RandomAI;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class BasicMCTS extends AIWithComputationBudget implements InterruptibleAI {
     EvaluationFunction ef;
     SelectionFunction sf;
     RandomScriptedAI defaultPolicy = null;
+    
+    /**
+     * Plays the playouts with copies of the default policy. Created when it is
+     * first needed, and again when the default policy is replaced.
+     */
+    Playout playout = null;
        
-    Random r = new Random();
+    /**
+     * The generator of the random numbers used by the searches of this
+     * instance. It is installed as the generator of the thread that runs a
+     * search (see {@link RandomSource}), and the other threads of a parallel
+     * search get generators split from it. A seeded instance that searches
+     * in one thread therefore always makes the same choices in the same game.
+     */
+    SplittableRandom random = new SplittableRandom();
+    
+    /**
+     * The seed of the generator, or null if it isn't seeded. The generator
+     * is seeded again when the instance is reset.
+     */
+    Long seed = null;
     
     /**
      * The initial game state from which the algorithm starts its search.
@@ -126,6 +151,88 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
      */
     String randomBattleString;
     
+    /**
+     * The ways in which a search can be divided among several threads.
+     * With ROOT, every thread builds its own tree and the statistics of
+     * the children of their roots are merged when choosing the action.
+     * With TREE, all threads search the same tree and virtual loss is
+     * used to keep them from descending into the same nodes.
+     */
+    public enum Parallelization { ROOT, TREE }
+    
+    /**
+     * The number of threads used by one search.
+     */
+    int searchThreads = 1;
+    
+    /**
+     * The way in which the search is divided among the threads.
+     */
+    Parallelization parallelization = Parallelization.TREE;
+    
+    /**
+     * The roots of the trees built by the other threads during the last
+     * root parallel search.
+     */
+    List<MCTSNode> parallelRoots = new ArrayList<>();
+    
+    /**
+     * Guards the search tree. Instances that search the same tree share it.
+     */
+    Object treeLock = new Object();
+    
+    /**
+     * Determines whether the search tree is currently being searched by
+     * several threads, in which case virtual loss is applied to the nodes
+     * on the path to a leaf until the result of its playout is known.
+     */
+    boolean sharedTree = false;
+    
+    /**
+     * The maximum number of game states kept by the nodes of a search tree.
+     * If it is zero, every node keeps its state. Otherwise, the states are
+     * only materialized when needed and the least recently used ones are dropped.
+     */
+    int stateCacheSize = 0;
+    
+    /**
+     * The number of slots of the transposition table of a search tree. If it
+     * is zero, transpositions aren't looked for, and every node only counts
+     * the playouts that went through it.
+     */
+    int transpositionTableSize = 0;
+    
+    /**
+     * Determines whether a search starts from the node of the previous
+     * search's tree that matches the new state, if there is one, instead of
+     * from a new root.
+     */
+    boolean treeReuse = false;
+    
+    /**
+     * Determines whether the time and depth of the playouts are logged in a
+     * binary file instead of a text file.
+     */
+    boolean binaryMetrics = false;
+    
+    /**
+     * The sink into which the time and depth of the playouts of the current
+     * battle are logged, and the file it writes. It is opened by the first
+     * search of a battle and closed when the game is over.
+     */
+    MetricsSink metrics;
+    String metricsFile;
+    
+    /**
+     * The threads that run the parallel parts of searches. They are shared by
+     * all instances, so that no threads have to be started for every move.
+     */
+    static final ExecutorService searchPool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "mcts-search");
+        t.setDaemon(true);
+        return t;
+    });
+    
     public BasicMCTS(UnitTypeTable utt) {
         this(100,-1,100,10,
              new RandomScriptedAI(Arrays.asList(new NOKAV(new AStarPathFinding()), new Kiter(new AStarPathFinding(), 3))),
@@ -143,7 +250,10 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
     public BasicMCTS(int available_time, int max_playouts, int lookahead, int max_depth, RandomScriptedAI policy, EvaluationFunction a_ef, SelectionFunction sf, List<DependentUnitScript> scripts, String name, String bmrkID) {
         super(available_time, max_playouts);
         MAXSIMULATIONTIME = lookahead;
-        defaultPolicy = policy;
+        // Every instance gets its own copy of the default policy, because
+        // the policy keeps track of assigned abstract actions and clones of
+        // this algorithm can be used by several games at the same time.
+        defaultPolicy = (RandomScriptedAI)policy.clone();
         MAX_TREE_DEPTH = max_depth;
         ef = a_ef;
         this.sf = sf;
@@ -181,17 +291,101 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         initialActionAssignment = null;
         abstractActions = new HashMap<>();
         nPlayouts = 0;
+        parallelRoots = new ArrayList<>();
+        if (seed != null) {
+            random = new SplittableRandom(seed);
+        }
+        closeMetrics();
+    }
+    
+    
+    @Override
+    public void gameOver(int winner) throws Exception {
+        closeMetrics();
     }
     
     
     @Override
     public AI clone() {
-        return new BasicMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, ef, sf, scripts, name, bmrkID);
+        return withSearchSettings(new BasicMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, ef, sf, scripts, name, bmrkID));
     }  
     
+    /**
+     * Copies the settings that aren't passed to the constructors to the given
+     * clone of this algorithm. Used by the clone methods.
+     */
+    protected AI withSearchSettings(BasicMCTS clone) {
+        clone.searchThreads = searchThreads;
+        clone.parallelization = parallelization;
+        clone.stateCacheSize = stateCacheSize;
+        clone.transpositionTableSize = transpositionTableSize;
+        clone.treeReuse = treeReuse;
+        clone.binaryMetrics = binaryMetrics;
+        if (seed != null) {
+            clone.setSeed(seed);
+        }
+        return clone;
+    }
+    
+    /**
+     * Seeds the generator of the random numbers used by the searches.
+     */
+    public void setSeed(long a_seed) {
+        seed = a_seed;
+        random = new SplittableRandom(a_seed);
+    }
+    
+    /**
+     * Sets the number of threads used by one search and the way in which
+     * the search is divided among them.
+     */
+    public void setParallelSearch(int threads, Parallelization mode) {
+        searchThreads = Math.max(1, threads);
+        parallelization = mode;
+    }
+    
+    /**
+     * Sets the maximum number of game states kept by the nodes of a search
+     * tree. Zero means that every node keeps its state.
+     */
+    public void setStateCacheSize(int size) {
+        stateCacheSize = Math.max(0, size);
+    }
+    
+    /**
+     * Sets the number of slots of the transposition table of a search tree.
+     * Zero means that transpositions aren't looked for.
+     */
+    public void setTranspositionTableSize(int size) {
+        transpositionTableSize = Math.max(0, size);
+    }
+    
+    /**
+     * Sets whether a search reuses the part of the previous search's tree
+     * that starts at the new state.
+     */
+    public void setTreeReuse(boolean reuse) {
+        treeReuse = reuse;
+    }
+    
     
     @Override
     public PlayerAction getAction(int player, GameState gs) throws Exception
+    {
+        SplittableRandom previous = RandomSource.install(random);
+        try {
+            return computeAction(player, gs);
+        }
+        finally {
+            RandomSource.install(previous);
+        }
+    }
+    
+    /**
+     * Computes the action of the given player, with the generator of this
+     * instance installed.
+     */
+    PlayerAction computeAction(int player, GameState gs) throws Exception
     {        
         if (gs.canExecuteAnyAction(player)) {
             // Initialize the algorithm.
@@ -266,8 +460,19 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
             return;
         }
         
-        float evaluation_bound = ef.upperBound(gs);
+        MCTSNode reused = treeReuse ? findReusableNode(a_player, gs) : null;
         playerForThisComputation = a_player;
+        parallelRoots = new ArrayList<>();
+        root = reused != null ? promote(reused) : createRoot(gs);
+        gs_to_start_from = gs;
+        total_runs_this_move = 0;
+    }    
+    
+    /**
+     * Creates the root of a search tree for the given game state.
+     */
+    MCTSNode createRoot(GameState gs) throws Exception {
+        float evaluation_bound = ef.upperBound(gs);
         
         // Compute the damage that was assigned to each of the enemy units
         // during the initial assignment.
@@ -282,10 +487,109 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
             }
         }
         
-        root = new MCTSNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound, sf, scripts, assignedDamage, abstractActions);
-        gs_to_start_from = gs;
-        total_runs_this_move = 0;
-    }    
+        StateCache cache = stateCacheSize > 0 ? new StateCache(stateCacheSize) : null;
+        MCTSNode node = new MCTSNode(playerForThisComputation, 1-playerForThisComputation, gs, null, null, cache, evaluation_bound, sf, scripts, assignedDamage, abstractActions);
+        if (transpositionTableSize > 0) {
+            node.transpositions = new TranspositionTable(transpositionTableSize);
+            node.transpositions.add(node);
+        }
+        return node;
+    }
+    
+    /**
+     * Looks for a node of the previous search's tree whose game state and
+     * updateable abstract actions of the given player's units are the same
+     * as the given ones, and in which it is the given player's turn.
+     * Only the subtrees whose states aren't later than the given state are
+     * searched. Returns null if there is no such node.
+     * 
+     * The nodes are matched by their times first, so only the states of the
+     * nodes at the given time are needed. When the tree has a transposition
+     * table, the hashes of their states are recovered from their keys in the
+     * table, so the states that were dropped from the state cache aren't
+     * rebuilt either.
+     */
+    MCTSNode findReusableNode(int player, GameState gs) {
+        if (root == null || root.maxPlayer != player || root.children == null) {
+            return null;
+        }
+        
+        long key = reuseKey(gs.zobristHash(), abstractActions, player);
+        ArrayDeque<MCTSNode> open = new ArrayDeque<>(root.children);
+        while (!open.isEmpty()) {
+            MCTSNode node = open.poll();
+            if (node.time > gs.getTime()) {
+                continue;
+            }
+            if (node.type == 0 && node.time == gs.getTime()) {
+                Map<Long, UpdateableAbstractAction> uaas = node.getAssignedAbstractActions();
+                long stateHash = node.transpositions != null
+                        ? node.transpositionKey ^ TranspositionTable.hash(uaas)
+                        : node.getGameState().zobristHash();
+                if (reuseKey(stateHash, uaas, player) == key) {
+                    return node;
+                }
+            }
+            if (node.children != null) {
+                open.addAll(node.children);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The key by which the nodes of the previous search's tree are matched
+     * with a new state, from the Zobrist hash of the state. The abstract
+     * actions of the opponent's units aren't known outside of the tree, so
+     * only those of the player's units count.
+     */
+    static long reuseKey(long stateHash, Map<Long, UpdateableAbstractAction> uaas, int player) {
+        Map<Long, UpdateableAbstractAction> own = new HashMap<>();
+        for (Map.Entry<Long, UpdateableAbstractAction> e : uaas.entrySet()) {
+            if (e.getValue().getUnit().getPlayer() == player) {
+                own.put(e.getKey(), e.getValue());
+            }
+        }
+        return stateHash ^ TranspositionTable.hash(own);
+    }
+    
+    /**
+     * Makes the given node of the previous search's tree the root of a new
+     * tree, keeping its statistics and its subtree and dropping the rest.
+     * The nodes keep the evaluation bound of the old root.
+     */
+    MCTSNode promote(MCTSNode node) {
+        // The state of a root is never dropped, so it has to be built before
+        // the node is detached from its parent.
+        node.getGameState();
+        node.parent = null;
+        node.action = null;
+        
+        List<MCTSNode> subtree = new ArrayList<>();
+        subtree.add(node);
+        for (int i = 0; i < subtree.size(); i++) {
+            MCTSNode n = subtree.get(i);
+            n.depth = n.parent == null ? 0 : n.parent.depth + 1;
+            if (n.children != null) {
+                subtree.addAll(n.children);
+            }
+        }
+        
+        NodeArena.compact(subtree);
+        if (node.stateCache != null) {
+            node.stateCache.retain(subtree.subList(1, subtree.size()));
+        }
+        if (node.transpositions != null) {
+            TranspositionTable tt = new TranspositionTable(node.transpositions.slots.length);
+            for (MCTSNode n : subtree) {
+                n.nextTransposition = null;
+            }
+            for (MCTSNode n : subtree) {
+                tt.reinsert(n);
+            }
+        }
+        return node;
+    }
     
     
     public void resetSearch() {
@@ -296,6 +600,7 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         initialActionAssignment = null;
         abstractActions = new HashMap<>();
         nPlayouts = 0;
+        parallelRoots = new ArrayList<>();
     }
     
     
@@ -307,37 +612,212 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         long cutOffTime = start + TIME_BUDGET;
         if (TIME_BUDGET<=0) cutOffTime = 0;
 
-        PrintStream ps = null;
-        try {
-            ps = new PrintStream(new FileOutputStream(path + name + "/" + bmrkID + "_" + battleName + "_" + randomBattleString + ".txt", true));
-        }       
-        catch (FileNotFoundException e) {
-            throw new Error("Can't log time and depth.");
+        MetricsSink log = openMetrics();
+        
+        if (searchThreads > 1) {
+            runParallelSearch(cutOffTime, log);
+        }
+        else {
+            runPlayouts(cutOffTime, log, new AtomicInteger());
         }
         
-        // Keep running iterations of the MCTS algorithm, until one of the
-        // cut off conditions is met.
+        total_cycles_executed++;
+    }
+    
+    /**
+     * Prepares the variables used during one search. Called by every thread
+     * that takes part in the search before it starts running playouts.
+     */
+    protected void initializeSearch() {
+    }
+    
+    /**
+     * Keeps running iterations of the MCTS algorithm, until one of the
+     * cut off conditions is met.
+     * @param playouts The number of playouts started so far. Shared by all
+     * the threads that take part in the search.
+     */
+    void runPlayouts(long cutOffTime, MetricsSink log, AtomicInteger playouts) throws Exception {
+        initializeSearch();
+        
         while(true) {
             long roundStart = System.nanoTime();
             if (cutOffTime>0 && System.currentTimeMillis() > cutOffTime) break;
-            nPlayouts++;
+            nPlayouts = playouts.incrementAndGet();
             if (ITERATIONS_BUDGET>0 && nPlayouts>ITERATIONS_BUDGET) break;
             monteCarloRun(playerForThisComputation, cutOffTime);
-            logTimeAndDepth(System.nanoTime() - roundStart, ps);
+            logTimeAndDepth(System.nanoTime() - roundStart, log);
             
             // If there is only one possible action at the root, there is no reason
             // to continue running the algorithm.
-            if (root.children.size() == 1 && !root.hasMoreActions) {
-                break;
+            synchronized (treeLock) {
+                if (root.children.size() == 1 && !root.hasMoreActions) {
+                    break;
+                }
             }
         }
+    }
+    
+    /**
+     * Runs the search in several threads. Each of the other threads uses its
+     * own clone of this algorithm, so that the variables that subclasses use
+     * during a playout aren't shared. The clones either search the same
+     * tree as this instance, or their own trees, depending on the chosen
+     * parallelization.
+     */
+    void runParallelSearch(long cutOffTime, MetricsSink log) throws Exception {
+        AtomicInteger playouts = new AtomicInteger();
         
-        total_cycles_executed++;
+        List<BasicMCTS> workers = new ArrayList<>();
+        for (int i = 1; i < searchThreads; ++i) {
+            BasicMCTS worker = (BasicMCTS)clone();
+            worker.random = random.split();
+            worker.playerForThisComputation = playerForThisComputation;
+            worker.gs_to_start_from = gs_to_start_from;
+            worker.abstractActions = abstractActions;
+            worker.battleName = battleName;
+            worker.randomBattleString = randomBattleString;
+            if (parallelization == Parallelization.TREE) {
+                worker.root = root;
+                worker.treeLock = treeLock;
+                worker.sharedTree = true;
+            }
+            else {
+                worker.root = worker.createRoot(gs_to_start_from.clone());
+                parallelRoots.add(worker.root);
+            }
+            workers.add(worker);
+        }
+        sharedTree = parallelization == Parallelization.TREE;
+        
+        // The work of the other threads is counted as work of this thread,
+        // so that measuring the move by its thread doesn't miss it.
+        ThreadUsage usage = ThreadUsage.current();
+        List<Future<?>> futures = new ArrayList<>();
+        for (BasicMCTS worker : workers) {
+            futures.add(searchPool.submit(() -> usage.run(() -> {
+                SplittableRandom previous = RandomSource.install(worker.random);
+                try {
+                    worker.runPlayouts(cutOffTime, log, playouts);
+                }
+                finally {
+                    RandomSource.install(previous);
+                }
+                return null;
+            })));
+        }
+        
+        try {
+            runPlayouts(cutOffTime, log, playouts);
+        }
+        finally {
+            sharedTree = false;
+            
+            // Wait for the other threads and collect their statistics.
+            for (int i = 0; i < workers.size(); ++i) {
+                try {
+                    futures.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+                    throw e;
+                }
+                BasicMCTS worker = workers.get(i);
+                total_runs += worker.total_runs;
+                total_runs_this_move += worker.total_runs_this_move;
+                maxDepth = Math.max(maxDepth, worker.maxDepth);
+            }
+        }
+    }
+    
+    /**
+     * Performs the selection and expansion steps of the algorithm from the root.
+     * If the tree is shared by several threads, virtual loss is applied
+     * to the path to the returned leaf.
+     */
+    protected MCTSNode selectLeaf(int player, boolean expandFirst) throws Exception {
+        synchronized (treeLock) {
+            MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, expandFirst);
+            if (sharedTree && leaf != null) {
+                applyVirtualLoss(leaf, 1);
+            }
+            return leaf;
+        }
+    }
+    
+    /**
+     * Removes the virtual loss from the path to the given leaf, if it was
+     * applied, and backpropagates the result of its playout. Subclasses
+     * with a different backpropagation have to do both while holding
+     * the tree lock as well.
+     */
+    protected void backup(MCTSNode leaf, double evaluation) {
+        backup(leaf, () -> Backpropagate(leaf, evaluation));
+    }
+    
+    /**
+     * Removes the virtual loss from the path to the given leaf, if it was
+     * applied, and runs the given backpropagation while holding the tree lock.
+     * If the tree has a transposition table, the changes that the
+     * backpropagation makes to the nodes on the path are shared with their
+     * transpositions.
+     */
+    protected void backup(MCTSNode leaf, Runnable backpropagation) {
+        synchronized (treeLock) {
+            removeVirtualLoss(leaf);
+            TranspositionTable tt = leaf.transpositions;
+            if (tt != null) {
+                tt.beforeBackup(leaf);
+            }
+            backpropagation.run();
+            if (tt != null) {
+                tt.afterBackup(leaf);
+            }
+        }
+    }
+    
+    /**
+     * Removes the virtual loss from the path to the given leaf. Has to be
+     * called while holding the tree lock.
+     */
+    protected void removeVirtualLoss(MCTSNode leaf) {
+        if (sharedTree) {
+            applyVirtualLoss(leaf, -1);
+        }
+    }
+    
+    /**
+     * Adds (sign = 1) or removes (sign = -1) a virtual loss to every node on
+     * the path from the given leaf to the root. A virtual loss counts as a visit
+     * that ended with the worst possible result for the player who chooses
+     * the node.
+     */
+    private void applyVirtualLoss(MCTSNode leaf, int sign) {
+        for (MCTSNode node = leaf; node != null; node = node.parent) {
+            float loss = 0;
+            if (node.parent != null) {
+                loss = sign * (node.parent.type == 0 ? -virtualLoss(node) : virtualLoss(node));
+            }
+            node.update(sign, loss);
+            if (node.nextTransposition != null) {
+                TranspositionTable.share(node, sign, loss, 0);
+            }
+        }
+    }
+    
+    /**
+     * The size of the virtual loss applied to the given node, i.e. the worst
+     * result that a playout through it can have.
+     */
+    protected float virtualLoss(MCTSNode node) {
+        return node.evaluation_bound;
     }
     
 
     public double monteCarloRun(int player, long cutOffTime) throws Exception {
-        MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, true);
+        MCTSNode leaf = selectLeaf(player, true);
         
         // Keep track of the maximum reached depth.
         if (leaf.depth > maxDepth) {
@@ -345,10 +825,10 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         }        
 
         if (leaf!=null) {
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, leaf.getAssignedAbstractActions());
             double evaluation = ef.evaluate(player, 1-player, gs2);
-            Backpropagate(leaf, evaluation);
+            backup(leaf, evaluation);
             
             total_runs++;
             total_runs_this_move++;
@@ -365,8 +845,7 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
      */
     protected void Backpropagate(MCTSNode node, double evaluation) {
         while(node!=null) {
-            node.accum_evaluation += evaluation;
-            node.visit_count++;
+            node.update(1, evaluation);
             node = node.parent;
         }
     }    
@@ -378,6 +857,10 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         if (root.children==null) {
             return new PlayerAction();
         }
+        
+        if (!parallelRoots.isEmpty()) {
+            return getBestMergedAction();
+        }
                 
         // Go through the children and find the one with the highest mean value.
         int bestIdx = -1;
@@ -385,7 +868,7 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         MCTSNode best = null;
         for(int i = 0;i<root.children.size();i++) {
             MCTSNode child = root.children.get(i);
-            float score = child.accum_evaluation / child.visit_count;
+            float score = child.getAccumEvaluation() / child.getVisitCount();
             if (best == null || bestScore < score) {
                 best = child;
                 bestIdx = i;
@@ -398,6 +881,51 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
         return root.actions.get(bestIdx);
     }
     
+    /**
+     * Finds the action with the highest mean value after merging the statistics
+     * of the children of all the roots built during a root parallel search.
+     * Children that correspond to the same action are merged.
+     */
+    PlayerAction getBestMergedAction() {
+        List<PlayerAction> actions = new ArrayList<>();
+        List<Float> evaluations = new ArrayList<>();
+        List<Integer> visits = new ArrayList<>();
+        
+        List<MCTSNode> roots = new ArrayList<>();
+        roots.add(root);
+        roots.addAll(parallelRoots);
+        for (MCTSNode r : roots) {
+            if (r.children == null) continue;
+            for (int i = 0; i < r.children.size(); i++) {
+                MCTSNode child = r.children.get(i);
+                int idx = actions.indexOf(r.actions.get(i));
+                if (idx == -1) {
+                    actions.add(r.actions.get(i));
+                    evaluations.add(child.getAccumEvaluation());
+                    visits.add(child.getVisitCount());
+                }
+                else {
+                    evaluations.set(idx, evaluations.get(idx) + child.getAccumEvaluation());
+                    visits.set(idx, visits.get(idx) + child.getVisitCount());
+                }
+            }
+        }
+        
+        int bestIdx = -1;
+        float bestScore = 0;
+        for (int i = 0; i < actions.size(); i++) {
+            float score = evaluations.get(i) / visits.get(i);
+            if (bestIdx == -1 || bestScore < score) {
+                bestIdx = i;
+                bestScore = score;
+            }
+        }
+        
+        if (bestIdx==-1) return new PlayerAction();
+        
+        return actions.get(bestIdx);
+    }
+    
     
     /**
      * Stores the abstract actions that are the source of unit actions issued in this iteration
@@ -407,7 +935,12 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
     public void getAbstractActions(PlayerAction chosen) {
         if (!chosen.isEmpty())
         {
-            abstractActions.putAll(root.getAbstractActions(chosen));
+            // The chosen action might come from the tree of another thread.
+            Map<Long, UpdateableAbstractAction> uaas = root.getAbstractActions(chosen);
+            for (int i = 0; uaas == null && i < parallelRoots.size(); i++) {
+                uaas = parallelRoots.get(i).getAbstractActions(chosen);
+            }
+            abstractActions.putAll(uaas);
         }
     }    
     
@@ -416,24 +949,38 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
      */
     public void simulate(GameState gs, int time, Map<Long, UpdateableAbstractAction> aaas) throws Exception {
         boolean gameover = false;
-        RandomScriptedAI randomPlayer1 = (RandomScriptedAI) defaultPolicy.clone();
-        randomPlayer1.setAbstractActions(aaas);
-        RandomScriptedAI randomPlayer2 = (RandomScriptedAI) defaultPolicy.clone();
-        randomPlayer2.setAbstractActions(aaas);
+        Playout p = getPlayout();
+        p.start(aaas);
         
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForward(time);
             } else {
-                PlayerAction a1 = randomPlayer1.getAction(0, gs);
-                PlayerAction a2 = randomPlayer2.getAction(1, gs);
-                gs.issue(a1);
-                gs.issue(a2);
+                p.issueActions(gs);
             }
         }while(!gameover && gs.getTime()<time);
     }
     
     
+    /**
+     * Returns the playout of this instance, creating it if needed.
+     */
+    protected Playout getPlayout() {
+        if (playout == null) {
+            playout = makePlayout();
+        }
+        return playout;
+    }
+    
+    
+    /**
+     * Creates the playout of this instance from the default policy.
+     */
+    protected Playout makePlayout() {
+        return new Playout(defaultPolicy);
+    }
+    
+    
     @Override 
     public String toString()
     {
@@ -472,15 +1019,59 @@ public class BasicMCTS extends AIWithComputationBudget implements InterruptibleA
     
     public void setDefaultPolicy(RandomScriptedAI a_dp) {
         defaultPolicy = a_dp;
+        playout = null;
     }
     
     public void setEvaluationFunction(EvaluationFunction a_ef) {
         ef = a_ef;
     }
 
-    protected void logTimeAndDepth(long time, PrintStream ps)
+    protected void logTimeAndDepth(long time, MetricsSink log)
     {
-        ps.println(nPlayouts + ", " + maxDepth + ", " + time);
+        log.record(nPlayouts, maxDepth, time);
+    }
+    
+    /**
+     * Returns the sink for the time and depth log of the current battle,
+     * opening it if this is the first search of the battle.
+     */
+    MetricsSink openMetrics() {
+        String file = path + name + "/" + bmrkID + "_" + battleName + "_" + randomBattleString + (binaryMetrics ? ".bin" : ".txt");
+        if (metrics == null || !file.equals(metricsFile)) {
+            closeMetrics();
+            try {
+                metrics = MetricsSink.open(file, binaryMetrics);
+                metricsFile = file;
+            }
+            catch (IOException e) {
+                throw new Error("Can't log time and depth.");
+            }
+        }
+        return metrics;
+    }
+    
+    /**
+     * Writes the rest of the time and depth log and closes it.
+     */
+    void closeMetrics() {
+        if (metrics != null) {
+            try {
+                metrics.close();
+            }
+            catch (IOException e) {
+                System.err.println("Can't log time and depth: " + e.getMessage());
+            }
+            metrics = null;
+            metricsFile = null;
+        }
+    }
+    
+    /**
+     * Sets whether the time and depth of the playouts are logged in a binary
+     * file instead of a text file.
+     */
+    public void setBinaryMetrics(boolean binary) {
+        binaryMetrics = binary;
     }
     
     public void setBattleName(String name) {
@@ -71,18 +71,18 @@ public class FAPMCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new FAPMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, exponentialSegmentation, exponentialMultiplication, numOfSegments, name, bmrkID, sf, ef);
+        return withSearchSettings(new FAPMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, exponentialSegmentation, exponentialMultiplication, numOfSegments, name, bmrkID, sf, ef));
     }
     
     @Override
     public double monteCarloRun(int player, long cutOffTime) throws Exception {
-        MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, true);
+        MCTSNode leaf = selectLeaf(player, true);
         if (leaf.depth > maxDepth) {
             maxDepth = leaf.depth;
         }    
 
         if (leaf!=null) {
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, leaf.getAssignedAbstractActions());
 
             // Compute the multiplicative factor which will multiply the result
@@ -101,7 +101,7 @@ public class FAPMCTS extends BasicMCTS {
             
             double evaluation = (float) multiplicativeFactor * ef.evaluate(player, 1-player, gs2);
 
-            Backpropagate(leaf, evaluation, (int)multiplicativeFactor);
+            backup(leaf, () -> Backpropagate(leaf, evaluation, (int)multiplicativeFactor));
             
             total_runs++;
             total_runs_this_move++;
@@ -151,8 +151,7 @@ public class FAPMCTS extends BasicMCTS {
     {
         do
         {
-            node.visit_count += visitCount;
-            node.accum_evaluation += evaluation;
+            node.update(visitCount, evaluation);
             node = node.parent;
         } while (node != null);
     }
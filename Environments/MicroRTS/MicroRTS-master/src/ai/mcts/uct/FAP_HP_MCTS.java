@@ -20,8 +20,6 @@ import rts.GameState;
 import rts.units.UnitTypeTable;
 import java.util.List;
 import ai.RandomScriptedAI;
-import rts.PhysicalGameState;
-import rts.units.Unit;
 
 
 public class FAP_HP_MCTS extends BasicMCTS {
@@ -73,18 +71,18 @@ public class FAP_HP_MCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new FAP_HP_MCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, exponentialSegmentation, exponentialMultiplication, numOfSegments, name, bmrkID, sf, ef);
+        return withSearchSettings(new FAP_HP_MCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, exponentialSegmentation, exponentialMultiplication, numOfSegments, name, bmrkID, sf, ef));
     }
     
     @Override
     public double monteCarloRun(int player, long cutOffTime) throws Exception {
-        MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, true);
+        MCTSNode leaf = selectLeaf(player, true);
         if (leaf.depth > maxDepth) {
             maxDepth = leaf.depth;
         }    
 
         if (leaf!=null) {
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, leaf.getAssignedAbstractActions());
 
             // Compute the multiplicative factor which will multiply the result
@@ -103,7 +101,7 @@ public class FAP_HP_MCTS extends BasicMCTS {
             
             double evaluation = (float) multiplicativeFactor * ef.evaluate(player, 1-player, gs2);
 
-            Backpropagate(leaf, evaluation, (int)multiplicativeFactor);
+            backup(leaf, () -> Backpropagate(leaf, evaluation, (int)multiplicativeFactor));
             
             total_runs++;
             total_runs_this_move++;
@@ -149,19 +147,10 @@ public class FAP_HP_MCTS extends BasicMCTS {
     protected void Backpropagate(MCTSNode node, double evaluation, int visitCount)
     {
         while(node!=null) {
-            float hpSum = 0;
             int player = evaluation > 0 ? playerForThisComputation : 1 - playerForThisComputation;
+            float hpSum = node.getHitPoints(player);
             
-            PhysicalGameState pgs = node.gs.getPhysicalGameState();
-            for(Unit u:pgs.getUnits()) {
-                if (u.getPlayer()==player) {
-                    hpSum += u.getHitPoints();
-                }
-            }            
-            
-            node.accum_evaluation += evaluation / hpSum;
-            
-            node.visit_count += visitCount;
+            node.update(visitCount, evaluation / hpSum);
             node = node.parent;
         }
     }
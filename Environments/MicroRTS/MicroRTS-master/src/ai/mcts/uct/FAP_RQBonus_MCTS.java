@@ -22,9 +22,6 @@ import java.util.List;
 import ai.RandomScriptedAI;
 import ai.abstraction.UpdateableAbstractAction;
 import ai.evaluation.HPDifference;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -179,7 +176,7 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new FAP_RQBonus_MCTS(
+        return withSearchSettings(new FAP_RQBonus_MCTS(
                 TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts,
                 numOfSegments, exponentialSegmentation, exponentialMultiplication,
                 _k, relativeBonusEnabled, qualitativeBonusEnabled,
@@ -188,11 +185,11 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
                 _averageQuality, _sampleStandardQualitativeDeviation, _averageWinQuality,
                 name, bmrkID,
                 sf, ef
-        );
+        ));
     }
     
     @Override
-    public void computeDuringOneGameFrame() throws Exception {
+    protected void initializeSearch() {
         // Reset variables between moves.
         _averageDistance = 0;
         _sampleStandardRelativeDeviation = 0;
@@ -203,47 +200,17 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
         _averageQuality = 0;
         _sampleStandardQualitativeDeviation = 0;
         _averageWinQuality = 0;
-        
-        long start = System.currentTimeMillis();
-        nPlayouts = 0;
-        long cutOffTime = start + TIME_BUDGET;
-        if (TIME_BUDGET<=0) cutOffTime = 0;
-
-        PrintStream ps = null;
-        try {
-            ps = new PrintStream(new FileOutputStream(path + name + "/" + bmrkID + "_" + battleName + "_" + randomBattleString + ".txt", true));
-        }       
-        catch (FileNotFoundException e) {
-            throw new Error("Can't log time and depth.");
-        }
-        
-        while(true) {                      
-            long roundStart = System.nanoTime();
-            if (cutOffTime>0 && System.currentTimeMillis() > cutOffTime) break;
-            nPlayouts++;
-            if (ITERATIONS_BUDGET>0 && nPlayouts>ITERATIONS_BUDGET) break;
-            monteCarloRun(playerForThisComputation, cutOffTime);
-            logTimeAndDepth(System.nanoTime() - roundStart, ps);
-            
-            // If there is only one possible action at the root, there is no reason
-            // to continue running the algorithm.
-            if (root.children.size() == 1 && !root.hasMoreActions) {
-                break;
-            }
-        }
-        
-        total_cycles_executed++;
     }
     
     @Override
     public double monteCarloRun(int player, long cutOffTime) throws Exception {
-        MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, true);
+        MCTSNode leaf = selectLeaf(player, true);
         if (leaf.depth > maxDepth) {
             maxDepth = leaf.depth;
         }    
 
         if (leaf!=null) {
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, leaf.getAssignedAbstractActions());
 
             // Compute the multiplicative factor which will multiply the result
@@ -264,6 +231,10 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
 
             _playoutResults.add(evaluation);
             
+            // The number of playouts whose results are in the statistics. Only
+            // equal to nPlayouts when the search isn't divided among several threads.
+            int n = _playoutResults.size();
+            
             // Compute relative bonus, if it is enabled.
             if (relativeBonusEnabled)
             {
@@ -278,17 +249,17 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
 
                 // Update the list of encountered distances, the mean, the mean of winning distances and the sample standard deviation.
                 _distances.add((double)distance);
-                _averageDistance = (_averageDistance * (nPlayouts - 1) + distance) / nPlayouts;
-                _averageWinDistance = (_averageWinDistance * (nPlayouts - 1) + Math.max(0, Math.signum(evaluation)) * distance) / nPlayouts;
+                _averageDistance = (_averageDistance * (n - 1) + distance) / n;
+                _averageWinDistance = (_averageWinDistance * (n - 1) + Math.max(0, Math.signum(evaluation)) * distance) / n;
 
-                if (nPlayouts > 1)
+                if (n > 1)
                 {
                     _sampleStandardRelativeDeviation = 0;
                     for (double d : _distances)
                     {
                         _sampleStandardRelativeDeviation += (d - _averageDistance) * (d - _averageDistance);
                     }
-                    _sampleStandardRelativeDeviation = (float)Math.sqrt(_sampleStandardRelativeDeviation / (nPlayouts - 1));
+                    _sampleStandardRelativeDeviation = (float)Math.sqrt(_sampleStandardRelativeDeviation / (n - 1));
                 }
             }
 
@@ -306,23 +277,24 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
 
                 // Update the list of encountered qualities, the mean, the mean of winning qualities and the sample standard deviation.
                 _qualities.add(quality);
-                _averageQuality = (_averageQuality * (nPlayouts - 1) + quality) / nPlayouts;
-                _averageWinQuality = (_averageQuality * (nPlayouts - 1) + Math.max(0, Math.signum(evaluation)) * quality) / nPlayouts;
+                _averageQuality = (_averageQuality * (n - 1) + quality) / n;
+                _averageWinQuality = (_averageQuality * (n - 1) + Math.max(0, Math.signum(evaluation)) * quality) / n;
 
-                if (nPlayouts > 1)
+                if (n > 1)
                 {
                     _sampleStandardQualitativeDeviation = 0;
                     for (double q : _qualities)
                     {
                         _sampleStandardQualitativeDeviation += (q - _averageQuality) * (q - _averageQuality);
                     }
-                    _sampleStandardQualitativeDeviation = (float)Math.sqrt(_sampleStandardQualitativeDeviation / (nPlayouts - 1));
+                    _sampleStandardQualitativeDeviation = (float)Math.sqrt(_sampleStandardQualitativeDeviation / (n - 1));
                 }
             }
             
             evaluation *= (float) multiplicativeFactor;
 
-            Backpropagate(leaf, evaluation, (int)multiplicativeFactor);
+            double result = evaluation;
+            backup(leaf, () -> Backpropagate(leaf, result, (int)multiplicativeFactor));
             
             total_runs++;
             total_runs_this_move++;
@@ -334,21 +306,25 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
         }
     }
     
+    // The playouts of this algorithm have always been played in turns (see
+    // Playout), and its results depend on it.
+    @Override
+    protected Playout makePlayout() {
+        return new Playout(defaultPolicy, true);
+    }
+    
     @Override
     public void simulate(GameState gs, int time, Map<Long, UpdateableAbstractAction> aaas) throws Exception {
         boolean gameover = false;
         playoutDepth = 0;
-        RandomScriptedAI randomPlayer1 = (RandomScriptedAI) defaultPolicy.clone();
-        randomPlayer1.setAbstractActions(aaas);
-        RandomScriptedAI randomPlayer2 = (RandomScriptedAI) defaultPolicy.clone();
-        randomPlayer2.setAbstractActions(aaas);
+        Playout p = getPlayout();
+        p.start(aaas);
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForward(time);
             } else {
-                gs.issue(defaultPolicy.getAction(0, gs));
-                gs.issue(defaultPolicy.getAction(1, gs));
+                p.issueActions(gs);
                 playoutDepth += 2;
             }
         }while(!gameover && gs.getTime()<time);   
@@ -374,7 +350,7 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
             double winM = Math.max(0, _playoutResults.get(i)) * metricList.get(i);
             covariance += (winM - averageWinMetric) * (metricList.get(i) - averageMetric);
         }
-        covariance /= nPlayouts - 1;
+        covariance /= _playoutResults.size() - 1;
 
         return Math.abs(covariance / sampleStandardDeviation);
     }
@@ -417,8 +393,7 @@ public class FAP_RQBonus_MCTS extends BasicMCTS {
     {
         do
         {
-            node.visit_count += visitCount;
-            node.accum_evaluation += evaluation;
+            node.update(visitCount, evaluation);
             node = node.parent;
         } while (node != null);
     }
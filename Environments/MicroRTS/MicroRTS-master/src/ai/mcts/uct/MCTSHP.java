@@ -21,8 +21,6 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import rts.PhysicalGameState;
-import rts.units.Unit;
 import rts.units.UnitTypeTable;
 import java.util.List;
 import java.util.Map;
@@ -53,7 +51,7 @@ public class MCTSHP extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new MCTSHP(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, name, bmrkID, sf, ef);
+        return withSearchSettings(new MCTSHP(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, name, bmrkID, sf, ef));
     }
     
     // The main change with respect to basic MCTS is this function.
@@ -62,19 +60,10 @@ public class MCTSHP extends BasicMCTS {
     @Override
     protected void Backpropagate(MCTSNode leaf, double evaluation) {
         while(leaf!=null) {
-            float hpSum = 0;
             int player = evaluation > 0 ? playerForThisComputation : 1 - playerForThisComputation;
+            float hpSum = leaf.getHitPoints(player);
             
-            PhysicalGameState pgs = leaf.gs.getPhysicalGameState();
-            for(Unit u:pgs.getUnits()) {
-                if (u.getPlayer()==player) {
-                    hpSum += u.getHitPoints();
-                }
-            }            
-            
-            leaf.accum_evaluation += evaluation / hpSum;
-            
-            leaf.visit_count++;
+            leaf.update(1, evaluation / hpSum);
             leaf = leaf.parent;
         }
     }
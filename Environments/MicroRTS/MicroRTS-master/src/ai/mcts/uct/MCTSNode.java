@@ -6,8 +6,9 @@
 package ai.mcts.uct;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import rts.GameState;
 import rts.PlayerAction;
 import rts.ScriptedActionGenerator;
@@ -21,7 +22,6 @@ import rts.UnitAction;
 import util.Pair;
 
 public class MCTSNode {
-    static Random r = new Random();
 
     /**
      * 0 : max, 1 : min, -1: Game-over
@@ -31,15 +31,79 @@ public class MCTSNode {
     public MCTSNode parent;
     
     /**
-     * The game state that corresponds to this node.
+     * The game state that corresponds to this node. If the node belongs to
+     * a tree whose states are kept in a {@link StateCache}, it can be null,
+     * so {@link #getGameState()} should be used to access it.
      */
     public GameState gs;
     
+    /**
+     * The action that leads from the parent to this node.
+     */
+    PlayerAction action;
+    
+    /**
+     * Keeps the game states of the nodes of this tree if they are supposed to
+     * be materialized lazily. Null if every node keeps its own game state.
+     */
+    StateCache stateCache;
+    
+    /**
+     * Copies of the updateable abstract actions that this node was created with.
+     * Only kept when the game state can be dropped, since they are needed
+     * to rebuild it.
+     */
+    Map<Long, UpdateableAbstractAction> initialAbstractActions;
+    
+    /**
+     * Seeds the random events (e.g. move conflict resolution) that happen
+     * while the game state of this node is built from the state of its parent,
+     * so that rebuilding it gives the same state. Only used with a state cache.
+     */
+    long seed;
+    
+    /**
+     * The sums of the hit points of the units of both players in the game
+     * state of this node. Computed when first needed, or when the node is created
+     * if its game state can be dropped.
+     */
+    float[] hitPoints;
+    
+    /**
+     * The players passed to the constructor.
+     */
+    int maxPlayer, minPlayer;
+    
+    /**
+     * The table in which the nodes of this tree are looked up to find
+     * transpositions, or null if they aren't. Set on the root and passed on
+     * to the children.
+     */
+    TranspositionTable transpositions;
+    
+    /**
+     * The key of this node in the transposition table, and the next node in
+     * the ring of nodes with the same key, or null if there are none.
+     */
+    long transpositionKey;
+    MCTSNode nextTransposition;
+    
+    /**
+     * The portfolio of scripts used to generate the actions of this node.
+     */
+    List<DependentUnitScript> scripts;
+    
     /**
      * The depth of this node in the search tree.
      */
     int depth = 0;
     
+    /**
+     * The time of the game state of this node, kept so that it can be known
+     * without building a state that was dropped.
+     */
+    int time;
+    
     /**
      * Determines whether the node has actions that haven't been tried yet.
      */
@@ -56,27 +120,25 @@ public class MCTSNode {
     public List<MCTSNode> children;
     
     /**
-     * The maximum value that this node can have.
+     * The IDs of the children, in the same order. Can be longer than the
+     * list of children.
      */
-    public float evaluation_bound = 0;
+    int[] childIds;
     
     /**
-     * A sum of rewards from playouts that were started after passing through
-     * this node in the search tree.
-     */
-    public float accum_evaluation = 0;
-    
-    /**
-     * The number of times this node has been visited during the traversal
-     * of the search tree.
+     * The maximum value that this node can have.
      */
-    public int visit_count = 0;
+    public float evaluation_bound = 0;
     
     /**
-     * Sum of the squares of rewards from playouts that were started after
-     * passing through this node in the search tree. Used only by UCBTunedMCTS.
+     * The arena that keeps the statistics of the nodes of this tree, and the
+     * ID of this node in it. The statistics are the number of times this node
+     * has been visited during the traversal of the search tree, the sum of
+     * rewards from playouts that were started after passing through it, and
+     * the sum of their squares, which is used only by UCBTunedMCTS.
      */
-    public float squaredValueSum = 0;
+    NodeArena arena;
+    int id;
     
     SelectionFunction sf;
     
@@ -102,8 +164,27 @@ public class MCTSNode {
     protected final int assignmentCounterBound = 50;
     
     public MCTSNode(int maxplayer, int minplayer, GameState a_gs, MCTSNode a_parent, float bound, SelectionFunction sf, List<DependentUnitScript> scripts, Map<Long, Integer> assignedDamage, Map<Long, UpdateableAbstractAction> assignedAA) throws Exception {
+        this(maxplayer, minplayer, a_gs, a_parent, null, null, bound, sf, scripts, assignedDamage, assignedAA);
+    }
+    
+    /**
+     * @param a The action that leads from the parent to this node.
+     * @param cache If it isn't null, the game state of this node is kept in
+     * the cache only as long as there is room for it and the move generator
+     * is only created when the node is expanded for the first time. The state
+     * of the root is never dropped. In this case a_gs is ignored for the other
+     * nodes and their state is built from the state of the parent.
+     */
+    public MCTSNode(int maxplayer, int minplayer, GameState a_gs, MCTSNode a_parent, PlayerAction a, StateCache cache, float bound, SelectionFunction sf, List<DependentUnitScript> scripts, Map<Long, Integer> assignedDamage, Map<Long, UpdateableAbstractAction> assignedAA) throws Exception {
         parent = a_parent;
+        arena = parent == null ? new NodeArena() : parent.arena;
+        id = arena.allocate();
         gs = a_gs;
+        action = a;
+        stateCache = cache;
+        maxPlayer = maxplayer;
+        minPlayer = minplayer;
+        this.scripts = scripts;
         
         this.sf = sf;
         this.assignedDamage = assignedDamage;
@@ -113,6 +194,54 @@ public class MCTSNode {
                      else depth = parent.depth+1;        
         evaluation_bound = bound;
         
+        if (stateCache != null && parent != null) {
+            initialAbstractActions = UpdateableAbstractAction.copyAll(assignedAA);
+            seed = stateCache.nextSeed();
+            gs = buildState(parent.getGameState(), assignedAbstractActions);
+        } else {
+            rollForward(gs, assignedAbstractActions);
+        }
+        time = gs.getTime();
+        
+        // Determine the node type.
+        if (gs.winner()!=-1 || gs.gameover()) {
+            type = -1;
+        }else if (gs.canExecuteAnyAction(maxplayer)) {
+            type = 0;
+            if (stateCache == null) {
+                moveGenerator = new ScriptedActionGenerator(gs, scripts, maxplayer, this.assignedDamage);
+            }
+            actions = new ArrayList<>();
+            children = new ArrayList<>();
+            childIds = new int[4];
+        } else if (gs.canExecuteAnyAction(minplayer)) {
+            type = 1;
+            if (stateCache == null) {
+                moveGenerator = new ScriptedActionGenerator(gs, scripts, minplayer, this.assignedDamage);
+            }
+            actions = new ArrayList<>();
+            children = new ArrayList<>();
+            childIds = new int[4];
+        } else {
+            type = -1;
+            System.err.println("RTMCTSNode: This should not have happened...");
+        }
+        
+        if (stateCache != null && parent != null) {
+            computeHitPoints();
+            stateCache.touch(this);
+        }
+    }
+    
+    /**
+     * Continues assigning actions to units based on the updateable abstract 
+     * actions that have been assigned to them already and rolls the game state
+     * forward until one of the players has units without actions.
+     */
+    private void rollForward(GameState gs, Map<Long, UpdateableAbstractAction> assignedAbstractActions) {
+        int maxplayer = maxPlayer;
+        int minplayer = minPlayer;
+        
         // Continue assigning actions to units based on the updateable abstract 
         // actions that have been assigned to them already. If all units get
         // actions assigned this way, roll the game state forward. If this
@@ -120,9 +249,10 @@ public class MCTSNode {
         int assignmentCounter = 0;
         boolean abstractActionsAssigned = false;
         while(gs.winner()==-1 && !gs.gameover()) {
-            // If neither player can execute an action, roll the game state forward.
+            // If neither player can execute an action, roll the game state
+            // forward to the next cycle in which an action completes.
             if (!gs.canExecuteAnyAction(maxplayer) && !gs.canExecuteAnyAction(minplayer)) {
-                gs.cycle();
+                gs.fastForward(Integer.MAX_VALUE);
                 abstractActionsAssigned = false;
             }
             // If abstract action were assigned a given number of times, it means that the units
@@ -180,24 +310,130 @@ public class MCTSNode {
                 break;
             }
         }
+    }
+    
+    /**
+     * Returns the game state that corresponds to this node. If it was dropped,
+     * it is rebuilt from the state of the parent, which might have to be
+     * rebuilt as well.
+     */
+    public GameState getGameState() {
+        if (stateCache == null) {
+            return gs;
+        }
         
-        // Determine the node type.
-        if (gs.winner()!=-1 || gs.gameover()) {
-            type = -1;
-            return;
-        }else if (gs.canExecuteAnyAction(maxplayer)) {
-            type = 0;
-            moveGenerator = new ScriptedActionGenerator(a_gs, scripts, maxplayer, this.assignedDamage);
-            actions = new ArrayList<>();
-            children = new ArrayList<>();
-        } else if (gs.canExecuteAnyAction(minplayer)) {
-            type = 1;
-            moveGenerator = new ScriptedActionGenerator(a_gs, scripts, minplayer, this.assignedDamage);
-            actions = new ArrayList<>();
-            children = new ArrayList<>();
-        } else {
-            type = -1;
-            System.err.println("RTMCTSNode: This should not have happened...");
+        synchronized (stateCache) {
+            if (gs == null) {
+                gs = buildState(parent.getGameState(), UpdateableAbstractAction.copyAll(initialAbstractActions));
+                
+                if (moveGenerator != null) {
+                    moveGenerator.setGameState(gs);
+                }
+            }
+            
+            if (parent != null) {
+                stateCache.touch(this);
+            }
+            return gs;
+        }
+    }
+    
+    /**
+     * Builds the game state of this node by issuing its action in a copy of
+     * the state of the parent and rolling it forward. The random events are
+     * drawn from a generator seeded by {@link #seed}, so the result is always
+     * the same for the same parent state.
+     */
+    private GameState buildState(GameState parentState, Map<Long, UpdateableAbstractAction> uaas) {
+        GameState state = parentState.clone();
+        state.setRandom(new SplittableRandom(seed));
+        state.issue(translateAction(action, state));
+        rollForward(state, uaas);
+        state.setRandom(null);
+        return state;
+    }
+    
+    /**
+     * Drops the game state of this node. Called by the state cache.
+     */
+    void dropState() {
+        gs = null;
+        if (moveGenerator != null) {
+            moveGenerator.setGameState(null);
+        }
+    }
+    
+    /**
+     * Returns an action equal to the given one that refers to the units
+     * of the given game state.
+     */
+    private static PlayerAction translateAction(PlayerAction a, GameState gs) {
+        PlayerAction translated = new PlayerAction();
+        for (Pair<Unit, UnitAction> p : a.getActions()) {
+            translated.addUnitAction(gs.getUnit(p.m_a.getID()), p.m_b);
+        }
+        translated.setResourceUsage(a.getResourceUsage());
+        return translated;
+    }
+    
+    /**
+     * Returns the move generator of this node, creating it if necessary.
+     * Returns null if the node is terminal.
+     */
+    public ScriptedActionGenerator getMoveGenerator() throws Exception {
+        // Rebuilding the state also rebinds an existing generator to it.
+        GameState state = getGameState();
+        if (moveGenerator == null && type != -1) {
+            moveGenerator = new ScriptedActionGenerator(state, scripts, type == 0 ? maxPlayer : minPlayer, assignedDamage);
+        }
+        return moveGenerator;
+    }
+    
+    /**
+     * Returns the sum of the hit points of the given player's units in
+     * the game state of this node.
+     */
+    public float getHitPoints(int player) {
+        if (hitPoints == null) {
+            computeHitPoints();
+        }
+        return hitPoints[player];
+    }
+    
+    private void computeHitPoints() {
+        float[] hp = new float[2];
+        for (Unit u : gs.getUnits()) {
+            if (u.getPlayer() == 0 || u.getPlayer() == 1) {
+                hp[u.getPlayer()] += u.getHitPoints();
+            }
+        }
+        hitPoints = hp;
+    }
+    
+    /**
+     * Tries the next action offered by the move generator by creating a child
+     * node for it. Returns the new child, or null if there are no more
+     * actions to try.
+     */
+    public MCTSNode expand() throws Exception {
+        synchronized (stateCache != null ? stateCache : this) {
+            PlayerAction a = getMoveGenerator().getNextAction(0);
+            
+            if (a == null) {
+                hasMoreActions = false;
+                return null;
+            }
+            
+            actions.add(a);
+            // With a state cache, the child builds its state by itself.
+            GameState gs2 = stateCache == null ? getGameState().cloneIssue(a) : null;
+            MCTSNode node = makeNewChild(gs2, a);
+            if (children.size() == childIds.length) {
+                childIds = Arrays.copyOf(childIds, 2 * childIds.length);
+            }
+            childIds[children.size()] = node.id;
+            children.add(node);
+            return node;
         }
     }
     
@@ -219,21 +455,15 @@ public class MCTSNode {
             // If there are actions available in this node that haven't been
             // tried yet.
             if (hasMoreActions) {
-                if (moveGenerator==null) {
+                if (type == -1) {
                     return this;
                 }                
-                PlayerAction a = moveGenerator.getNextAction(0);
                 
                 // If a new action was returned by the move generator,
-                // create a new child node and return it.
-                if (a!=null) {
-                    actions.add(a);
-                    GameState gs2 = gs.cloneIssue(a);        
-                    MCTSNode node = makeNewChild(gs2, a);
-                    children.add(node);
-                    return node;                
-                } else {
-                    hasMoreActions = false;
+                // a new child node was created, so return it.
+                MCTSNode node = expand();
+                if (node != null) {
+                    return node;
                 }
             }
         }
@@ -247,7 +477,7 @@ public class MCTSNode {
         
         // If the best node is a newly created one (i.e. it has 0 visits), that means 
         // that it was created by the selection function, so we should return it.
-        if (best.visit_count == 0) {
+        if (best.getVisitCount() == 0) {
             return best;
         }
         
@@ -272,7 +502,12 @@ public class MCTSNode {
         newAssignedDamage.putAll(assignedDamage);        
         uaas.putAll(assignedAbstractActions);
         
-        return new MCTSNode(lastMaxPlayer, lastMinPlayer, gs.clone(), this, evaluation_bound, sf, moveGenerator.getScripts(), newAssignedDamage, uaas);
+        MCTSNode child = new MCTSNode(lastMaxPlayer, lastMinPlayer, gs == null ? null : gs.clone(), this, a, stateCache, evaluation_bound, sf, moveGenerator.getScripts(), newAssignedDamage, uaas);
+        if (transpositions != null) {
+            child.transpositions = transpositions;
+            transpositions.add(child);
+        }
+        return child;
     }
     
     /**
@@ -281,6 +516,9 @@ public class MCTSNode {
      * first. 
      */
     public Map<Long, UpdateableAbstractAction> getAbstractActions(PlayerAction pa) {
+        if (moveGenerator == null) {
+            return null;
+        }
         return moveGenerator.getCorrespondingUAAs(pa);
     }
     
@@ -288,10 +526,61 @@ public class MCTSNode {
         return assignedAbstractActions;
     }
     
+    public NodeArena getArena() {
+        return arena;
+    }
+    
+    /**
+     * Returns the ID of this node in the arena.
+     */
+    public int getId() {
+        return id;
+    }
+    
+    /**
+     * Returns the ID of the i-th child in the arena.
+     */
+    public int getChildId(int i) {
+        return childIds[i];
+    }
+    
+    public int getVisitCount() {
+        return arena.visitCounts[id];
+    }
+    
+    public float getAccumEvaluation() {
+        return arena.evaluations[id];
+    }
+    
+    public float getSquaredValueSum() {
+        return arena.squaredValueSums[id];
+    }
+    
+    /**
+     * Adds the given number of visits and the given sum of rewards to the
+     * statistics of this node.
+     */
+    public void update(int visits, double evaluation) {
+        arena.visitCounts[id] += visits;
+        arena.evaluations[id] += evaluation;
+        arena.refresh(id);
+    }
+    
+    public void addSquaredValue(double squaredValue) {
+        arena.squaredValueSums[id] += squaredValue;
+    }
+    
+    void setStatistics(int visits, float evaluation, float squaredValue) {
+        arena.visitCounts[id] = visits;
+        arena.evaluations[id] = evaluation;
+        arena.squaredValueSums[id] = squaredValue;
+        arena.refresh(id);
+    }
+    
     /**
      * Returns the number of possible actions this node can have.
      */
-    public int getActionCount() {
-        return moveGenerator.getActionCount();
+    public int getActionCount() throws Exception {
+        return getMoveGenerator().getActionCount();
     }
 }
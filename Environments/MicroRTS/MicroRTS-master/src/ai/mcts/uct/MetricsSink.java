@@ -0,0 +1,197 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the number of playouts, the depth and the time of every playout of
+ * a search to a file, without slowing the search down. The records are put
+ * into a ring buffer and a background thread writes them to the file through
+ * a buffer.
+ *
+ * The file is either a text file with one "playouts, depth, time" line per
+ * record, or a binary file in which every record is two ints followed by a
+ * long, all big-endian. The file is appended to, and all the searches that
+ * log into the same file share one sink, which is closed when the last of
+ * them closes it.
+ */
+public class MetricsSink {
+    /**
+     * The number of records the ring buffer can hold. When it is full, the
+     * searches wait for the writer.
+     */
+    static final int CAPACITY = 1 << 14;
+
+    /**
+     * The sinks that are currently open, by the canonical paths of their files.
+     */
+    private static final Map<String, MetricsSink> openSinks = new HashMap<>();
+
+    private final String key;
+    private final boolean binary;
+    private final DataOutputStream out;
+    private final Thread writer;
+
+    /**
+     * The number of searches that opened this sink and haven't closed it yet.
+     */
+    private int users = 0;
+
+    /**
+     * The ring buffer. Every record takes three elements.
+     */
+    private final long[] records = new long[3 * CAPACITY];
+    private int first = 0;
+    private int size = 0;
+    private boolean closed = false;
+
+    /**
+     * The error that stopped the writer, if any.
+     */
+    private IOException error = null;
+
+    private MetricsSink(String key, boolean binary) throws IOException {
+        this.key = key;
+        this.binary = binary;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(key, true), 1 << 16));
+        writer = new Thread(this::drain, "mcts-metrics");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the sink that logs into the given file, creating it if no other
+     * search is logging into it.
+     */
+    public static MetricsSink open(String fileName, boolean binary) throws IOException {
+        String key = new File(fileName).getCanonicalPath();
+        synchronized (openSinks) {
+            MetricsSink sink = openSinks.get(key);
+            if (sink == null) {
+                sink = new MetricsSink(key, binary);
+                openSinks.put(key, sink);
+            }
+            sink.users++;
+            return sink;
+        }
+    }
+
+    /**
+     * Adds a record. Only waits if the writer is behind by a whole buffer.
+     */
+    public synchronized void record(int playouts, int depth, long time) {
+        while (size == CAPACITY && !closed) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (closed) {
+            return;
+        }
+        int i = 3 * ((first + size) % CAPACITY);
+        records[i] = playouts;
+        records[i + 1] = depth;
+        records[i + 2] = time;
+        if (size++ == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes this sink for one of the searches that opened it. When all of them
+     * have closed it, the remaining records are written and the file is closed.
+     */
+    public void close() throws IOException {
+        synchronized (openSinks) {
+            if (--users > 0) {
+                return;
+            }
+            openSinks.remove(key);
+        }
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * The body of the writer thread. Takes all the records from the buffer at
+     * once and writes them without holding the lock.
+     */
+    private void drain() {
+        long[] batch = new long[records.length];
+        try {
+            while (true) {
+                int n;
+                synchronized (this) {
+                    while (size == 0 && !closed) {
+                        wait();
+                    }
+                    if (size == 0) {
+                        break;
+                    }
+                    n = size;
+                    for (int j = 0; j < n; j++) {
+                        System.arraycopy(records, 3 * ((first + j) % CAPACITY), batch, 3 * j, 3);
+                    }
+                    first = (first + n) % CAPACITY;
+                    size = 0;
+                    notifyAll();
+                }
+                for (int j = 0; j < 3 * n; j += 3) {
+                    if (binary) {
+                        out.writeInt((int)batch[j]);
+                        out.writeInt((int)batch[j + 1]);
+                        out.writeLong(batch[j + 2]);
+                    }
+                    else {
+                        out.writeBytes(batch[j] + ", " + batch[j + 1] + ", " + batch[j + 2] + System.lineSeparator());
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            error = e;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the statistics of the nodes of a search tree in arrays, indexed by
+ * the IDs of the nodes. The statistics of the children of a node are read
+ * by the selection function every time the node is passed, and keeping them
+ * next to each other instead of in the nodes themselves means that the
+ * children don't have to be visited to score them.
+ *
+ * Besides the statistics themselves, the arena keeps the values that the
+ * selection functions derive from them: the mean evaluation of every node
+ * and the logarithm of its visit count. They are updated together with the
+ * statistics, which happens once per playout for every node on its path,
+ * instead of being computed for every child every time a node is passed.
+ *
+ * An arena belongs to one tree and is guarded by the lock of that tree.
+ */
+public class NodeArena {
+    int[] visitCounts;
+    float[] evaluations;
+    float[] squaredValueSums;
+    double[] means;
+    double[] logVisitCounts;
+    int size = 0;
+
+    public NodeArena() {
+        this(64);
+    }
+
+    public NodeArena(int capacity) {
+        capacity = Math.max(1, capacity);
+        visitCounts = new int[capacity];
+        evaluations = new float[capacity];
+        squaredValueSums = new float[capacity];
+        means = new double[capacity];
+        logVisitCounts = new double[capacity];
+    }
+
+    /**
+     * Reserves room for the statistics of a new node and returns its ID.
+     * The statistics start at zero.
+     */
+    int allocate() {
+        if (size == visitCounts.length) {
+            int n = 2 * size;
+            visitCounts = Arrays.copyOf(visitCounts, n);
+            evaluations = Arrays.copyOf(evaluations, n);
+            squaredValueSums = Arrays.copyOf(squaredValueSums, n);
+            means = Arrays.copyOf(means, n);
+            logVisitCounts = Arrays.copyOf(logVisitCounts, n);
+        }
+        refresh(size);
+        return size++;
+    }
+    
+    /**
+     * Recomputes the values derived from the statistics of the given node.
+     * Has to be called whenever they change.
+     */
+    void refresh(int id) {
+        means[id] = ((double)evaluations[id]) / visitCounts[id];
+        logVisitCounts[id] = Math.log((double)visitCounts[id]);
+    }
+
+    /**
+     * Moves the statistics of the given nodes, which must all belong to the
+     * same arena, into a new arena that only holds them, and returns it.
+     * Used when the rest of the tree is thrown away.
+     */
+    static NodeArena compact(List<MCTSNode> nodes) {
+        NodeArena arena = new NodeArena(nodes.size());
+        for (MCTSNode node : nodes) {
+            int id = arena.allocate();
+            arena.visitCounts[id] = node.arena.visitCounts[node.id];
+            arena.evaluations[id] = node.arena.evaluations[node.id];
+            arena.squaredValueSums[id] = node.arena.squaredValueSums[node.id];
+            arena.refresh(id);
+            node.arena = arena;
+            node.id = id;
+        }
+        for (MCTSNode node : nodes) {
+            for (int i = 0; node.children != null && i < node.children.size(); i++) {
+                node.childIds[i] = node.children.get(i).id;
+            }
+        }
+        return arena;
+    }
+
+    public int getVisitCount(int id) {
+        return visitCounts[id];
+    }
+
+    public float getAccumEvaluation(int id) {
+        return evaluations[id];
+    }
+
+    public float getSquaredValueSum(int id) {
+        return squaredValueSums[id];
+    }
+    
+    /**
+     * Returns the mean evaluation of the given node, i.e. its sum of
+     * evaluations divided by its visit count.
+     */
+    public double getMean(int id) {
+        return means[id];
+    }
+    
+    /**
+     * Returns the natural logarithm of the visit count of the given node.
+     */
+    public double getLogVisitCount(int id) {
+        return logVisitCounts[id];
+    }
+
+    /**
+     * Returns the number of nodes in this arena.
+     */
+    public int size() {
+        return size;
+    }
+}
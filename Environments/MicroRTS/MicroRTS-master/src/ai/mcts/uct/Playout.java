@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import ai.RandomScriptedAI;
+import ai.abstraction.UpdateableAbstractAction;
+import java.util.Map;
+import rts.GameState;
+import rts.PlayerAction;
+
+/**
+ * The default policies that play the playouts of a search, one for each
+ * player. Both start every playout with copies of the updateable abstract
+ * actions of the leaf it starts from.
+ *
+ * The policies are created once and reused by all the playouts, and they pick
+ * their actions in the playout state itself instead of in clones of it. A
+ * search is only run by one thread at a time, and the workers of a parallel
+ * search are clones with their own playouts, so nothing here is shared.
+ *
+ * A playout can also be played in turns, the way some of the searches always
+ * played theirs: one policy picks the actions of both players, the action of
+ * player 0 is issued before the one of player 1 is picked, and the abstract
+ * actions of the leaf are ignored. The policy keeps its own abstract actions
+ * from one playout to the next.
+ */
+public class Playout {
+    final RandomScriptedAI[] policies;
+    final boolean inTurns;
+
+    public Playout(RandomScriptedAI defaultPolicy) {
+        this(defaultPolicy, false);
+    }
+
+    /**
+     * Creates the playout, played in turns if inTurns is true.
+     */
+    public Playout(RandomScriptedAI defaultPolicy, boolean inTurns) {
+        this.inTurns = inTurns;
+        if (inTurns) {
+            policies = new RandomScriptedAI[] {(RandomScriptedAI)defaultPolicy.clone()};
+        } else {
+            policies = new RandomScriptedAI[] {(RandomScriptedAI)defaultPolicy.clone(),
+                                               (RandomScriptedAI)defaultPolicy.clone()};
+        }
+    }
+
+    /**
+     * Gets the policies ready for a playout that starts from a leaf with the
+     * given updateable abstract actions.
+     */
+    public void start(Map<Long, UpdateableAbstractAction> aaas) {
+        if (inTurns) return;
+        policies[0].resetAbstractActions(aaas);
+        policies[1].resetAbstractActions(aaas);
+    }
+
+    /**
+     * Lets the policies pick the actions of both players for the given state,
+     * and issues them. Both actions are picked before either is issued,
+     * unless the playout is played in turns.
+     */
+    public void issueActions(GameState gs) {
+        if (inTurns) {
+            gs.issue(policies[0].getActionInPlace(0, gs));
+            gs.issue(policies[0].getActionInPlace(1, gs));
+            return;
+        }
+        PlayerAction a1 = policies[0].getActionInPlace(0, gs);
+        PlayerAction a2 = policies[1].getActionInPlace(1, gs);
+        gs.issue(a1);
+        gs.issue(a2);
+    }
+}
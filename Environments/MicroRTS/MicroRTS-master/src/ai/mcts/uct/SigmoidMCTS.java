@@ -48,7 +48,7 @@ public class SigmoidMCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new SigmoidMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, ef, sf, scripts, name, bmrkID, constK);
+        return withSearchSettings(new SigmoidMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, ef, sf, scripts, name, bmrkID, constK));
     }
     
     @Override
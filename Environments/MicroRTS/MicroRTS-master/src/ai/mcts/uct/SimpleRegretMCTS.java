@@ -46,14 +46,14 @@ public class SimpleRegretMCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new SimpleRegretMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, ef, sf, scripts, name, bmrkID);
+        return withSearchSettings(new SimpleRegretMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, ef, sf, scripts, name, bmrkID));
     }
     
     // Overridden so that the root node has the expandFirst parameter set to false if the epsilon-
     // -greedy policy is used.
     @Override
     public double monteCarloRun(int player, long cutOffTime) throws Exception {
-        MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, sf instanceof UCBSqrt);
+        MCTSNode leaf = selectLeaf(player, sf instanceof UCBSqrt);
         
         // Keep track of the maximum reached depth.
         if (leaf.depth > maxDepth) {
@@ -61,10 +61,10 @@ public class SimpleRegretMCTS extends BasicMCTS {
         }        
 
         if (leaf!=null) {
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, leaf.getAssignedAbstractActions());
             double evaluation = ef.evaluate(player, 1-player, gs2);
-            Backpropagate(leaf, evaluation);
+            backup(leaf, evaluation);
             
             total_runs++;
             total_runs_this_move++;
@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import util.RandomSource;
+
+/**
+ * Keeps the game states of at most a given number of nodes of a search tree.
+ * When there are more, the state of the node that was used least recently is
+ * dropped. It gets rebuilt from the state of the node's parent and the action
+ * that leads to the node when it is needed again.
+ */
+public class StateCache {
+    /**
+     * The maximum number of nodes whose game states are kept.
+     */
+    private final int capacity;
+    
+    /**
+     * The nodes whose game states are kept, ordered from the least to the
+     * most recently used one.
+     */
+    private final LinkedHashMap<MCTSNode, Boolean> nodes;
+    
+    public StateCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        nodes = new LinkedHashMap<MCTSNode, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MCTSNode, Boolean> eldest) {
+                if (size() > StateCache.this.capacity) {
+                    eldest.getKey().dropState();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Marks the game state of the given node as the most recently used one,
+     * dropping the least recently used state if there are too many.
+     */
+    synchronized void touch(MCTSNode node) {
+        nodes.put(node, Boolean.TRUE);
+    }
+    
+    /**
+     * Forgets all the nodes except the given ones, without dropping their
+     * states. Used when the rest of the tree is thrown away.
+     */
+    synchronized void retain(Collection<MCTSNode> kept) {
+        nodes.keySet().retainAll(new HashSet<>(kept));
+    }
+    
+    /**
+     * Returns a seed for the random events of a new node's game state, so
+     * that they can be replayed when the state is rebuilt. It is drawn from
+     * the generator of the thread that expands the node.
+     */
+    long nextSeed() {
+        return RandomSource.current().nextLong();
+    }
+    
+    /**
+     * Returns the number of nodes whose game states are currently kept.
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ai.mcts.uct;
+
+import ai.abstraction.UpdateableAbstractAction;
+import java.util.Map;
+import static util.Hashing.mix;
+
+/**
+ * Finds the nodes of a search tree that correspond to the same position, so
+ * that they can share their statistics. Different script assignments often
+ * lead to the same game state, and without sharing, every one of them gets
+ * its own subtree whose statistics only count its own playouts.
+ *
+ * A position is identified by the Zobrist hash of the game state of a node
+ * (see {@link rts.GameState#zobristHash()}) combined with the updateable
+ * abstract actions assigned to its units, since those decide how the units
+ * keep acting. The nodes of the same position are linked into a ring, start
+ * with the statistics of the other nodes of the ring, and every change made
+ * to the statistics of one of them is made to the others as well. The tree
+ * itself stays a tree: the changes are not propagated to the parents of the
+ * other nodes.
+ *
+ * The table has a fixed number of slots. A key can be stored in either of two
+ * slots, and when both are taken, the node with fewer visits is replaced. A
+ * replaced node keeps sharing with its ring, but new nodes of its position
+ * are not found anymore, unless it is stored again.
+ *
+ * The table is guarded by the lock of the tree it indexes.
+ */
+public class TranspositionTable {
+    final MCTSNode[] slots;
+    final int mask;
+
+    long lookups = 0;
+    long hits = 0;
+
+    /**
+     * The statistics of the nodes on the path of the playout that is being
+     * backpropagated, from the leaf to the root, before it was backpropagated.
+     */
+    int[] visits = new int[16];
+    float[] evaluations = new float[16];
+    float[] squaredValues = new float[16];
+
+    public TranspositionTable(int capacity) {
+        int n = 2;
+        while (n < capacity && n < (1 << 30)) {
+            n <<= 1;
+        }
+        slots = new MCTSNode[n];
+        mask = n - 1;
+    }
+
+    /**
+     * Computes the key of the given node, links it with the nodes of the same
+     * position, if there are any, and stores it in the table.
+     */
+    public void add(MCTSNode node) {
+        node.transpositionKey = node.getGameState().zobristHash() ^ hash(node.getAssignedAbstractActions());
+        lookups++;
+        MCTSNode other = find(node.transpositionKey);
+        if (other != null) {
+            hits++;
+            node.setStatistics(other.getVisitCount(), other.getAccumEvaluation(), other.getSquaredValueSum());
+            link(node, other);
+        }
+        else {
+            store(node);
+        }
+    }
+    
+    /**
+     * Adds a node that was in the table of another tree to this table. Its
+     * key is kept, and it is linked with the nodes of the same position
+     * without taking their statistics, since the nodes of a ring already
+     * have the same statistics.
+     */
+    public void reinsert(MCTSNode node) {
+        node.transpositions = this;
+        MCTSNode other = find(node.transpositionKey);
+        if (other != null) {
+            link(node, other);
+        }
+        else {
+            store(node);
+        }
+    }
+    
+    private int bucket(long key) {
+        return (int)(key ^ (key >>> 32)) & mask & ~1;
+    }
+    
+    private MCTSNode find(long key) {
+        int i = bucket(key);
+        for (int j = i; j <= i + 1; j++) {
+            if (slots[j] != null && slots[j].transpositionKey == key) {
+                return slots[j];
+            }
+        }
+        return null;
+    }
+    
+    private void store(MCTSNode node) {
+        int i = bucket(node.transpositionKey);
+        if (slots[i] != null && (slots[i + 1] == null || slots[i + 1].getVisitCount() < slots[i].getVisitCount())) {
+            i++;
+        }
+        slots[i] = node;
+    }
+    
+    private static void link(MCTSNode node, MCTSNode other) {
+        node.nextTransposition = other.nextTransposition == null ? other : other.nextTransposition;
+        other.nextTransposition = node;
+    }
+
+    /**
+     * Remembers the statistics of the nodes on the path from the given leaf
+     * to the root, before the result of a playout is backpropagated.
+     */
+    public void beforeBackup(MCTSNode leaf) {
+        if (visits.length <= leaf.depth) {
+            int n = Math.max(leaf.depth + 1, 2 * visits.length);
+            visits = new int[n];
+            evaluations = new float[n];
+            squaredValues = new float[n];
+        }
+        int i = 0;
+        for (MCTSNode node = leaf; node != null; node = node.parent, i++) {
+            visits[i] = node.getVisitCount();
+            evaluations[i] = node.getAccumEvaluation();
+            squaredValues[i] = node.getSquaredValueSum();
+        }
+    }
+
+    /**
+     * Makes the changes that the backpropagation made to the nodes on the
+     * path from the given leaf to the root to the other nodes of their
+     * positions as well.
+     */
+    public void afterBackup(MCTSNode leaf) {
+        int i = 0;
+        for (MCTSNode node = leaf; node != null; node = node.parent, i++) {
+            if (node.nextTransposition != null) {
+                share(node, node.getVisitCount() - visits[i], node.getAccumEvaluation() - evaluations[i], node.getSquaredValueSum() - squaredValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the given changes to the statistics of the other nodes of the
+     * position of the given node.
+     */
+    static void share(MCTSNode node, int visits, float evaluation, float squaredValue) {
+        for (MCTSNode other = node.nextTransposition; other != node && other != null; other = other.nextTransposition) {
+            other.update(visits, evaluation);
+            other.addSquaredValue(squaredValue);
+        }
+    }
+
+    public String statisticsString() {
+        return "transpositions: " + hits + "/" + lookups + " nodes matched";
+    }
+
+    /**
+     * An order independent hash of the given updateable abstract actions.
+     */
+    static long hash(Map<Long, UpdateableAbstractAction> uaas) {
+        long h = 0;
+        for (Map.Entry<Long, UpdateableAbstractAction> e : uaas.entrySet()) {
+            h += mix(mix(e.getKey()) + e.getValue().hashCode());
+        }
+        return mix(h);
+    }
+}
@@ -34,7 +34,7 @@ public class UCBTunedMCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new UCBTunedMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, name, bmrkID);
+        return withSearchSettings(new UCBTunedMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, name, bmrkID));
     }  
     
     
@@ -42,12 +42,11 @@ public class UCBTunedMCTS extends BasicMCTS {
     @Override
     protected void Backpropagate(MCTSNode leaf, double evaluation) {
         while(leaf!=null) {
-            leaf.accum_evaluation += evaluation;
+            leaf.update(1, evaluation);
             // Scale the value to between 0 and 1 before squaring it.
             if (leaf.parent != null) {
-                leaf.squaredValueSum += leaf.parent.type == 0 ? (leaf.evaluation_bound + evaluation) * (leaf.evaluation_bound + evaluation) / 4 : (leaf.evaluation_bound - evaluation) * (leaf.evaluation_bound - evaluation) / 4;
+                leaf.addSquaredValue(leaf.parent.type == 0 ? (leaf.evaluation_bound + evaluation) * (leaf.evaluation_bound + evaluation) / 4 : (leaf.evaluation_bound - evaluation) * (leaf.evaluation_bound - evaluation) / 4);
             }
-            leaf.visit_count++;
             leaf = leaf.parent;
         }
     }
@@ -40,7 +40,7 @@ public class VOIAwareMCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new VOIAwareMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, name, bmrkID, sf, ef);
+        return withSearchSettings(new VOIAwareMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, name, bmrkID, sf, ef));
     }
     
     @Override
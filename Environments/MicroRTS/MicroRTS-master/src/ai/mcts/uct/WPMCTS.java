@@ -17,9 +17,6 @@ import ai.portfolio.portfoliogreedysearch.DependentUnitScript;
 import ai.selection.UCBwoScaling;
 import ai.selection.SelectionFunction;
 import ai.evaluation.EvaluationFunction;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import rts.GameState;
 import rts.units.UnitTypeTable;
 import java.util.List;
@@ -89,33 +86,19 @@ public class WPMCTS extends BasicMCTS {
     
     @Override
     public AI clone() {
-        return new WPMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, voiBase, poeBase, relative, name, bmrkID, sf, ef);
+        return withSearchSettings(new WPMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, defaultPolicy, scripts, voiBase, poeBase, relative, name, bmrkID, sf, ef));
     }  
     
     // Overridden so that the upper bound on the score of a state is computed.
     @Override
-    public void computeDuringOneGameFrame() throws Exception {   
-        long start = System.currentTimeMillis();
-        nPlayouts = 0;
-        maxDepth = 0;
-        long cutOffTime = start + TIME_BUDGET;
-        if (TIME_BUDGET<=0) cutOffTime = 0;
-
-        PrintStream ps = null;
-        try {
-            ps = new PrintStream(new FileOutputStream(path + name + "/" + bmrkID + "_" + battleName + "_" + randomBattleString + ".txt", true));
-        }       
-        catch (FileNotFoundException e) {
-            throw new Error("Can't log time and depth.");
-        }
-        
+    protected void initializeSearch() {
         // Compute the upper bound on the score of a state as the sum of hit points
         // of the team that has more hit points left at this point. (Because, if
         // that team were to destroy the other team without losing any hp,
         // this is the score it would end up with).
         int hp0 = 0;
         int hp1 = 0;
-        for (Unit u : root.gs.getUnits()) {
+        for (Unit u : root.getGameState().getUnits()) {
             if (u.getPlayer() == 0) {
                 hp0 += u.getHitPoints();
             }
@@ -125,40 +108,28 @@ public class WPMCTS extends BasicMCTS {
         }
         
         upperBound = Math.max(hp0, hp1);
-        
-        // Keep running iterations of the MCTS algorithm, until one of the
-        // cut off conditions is met.
-        while(true) {
-            long roundStart = System.nanoTime();
-            if (cutOffTime>0 && System.currentTimeMillis() > cutOffTime) break;
-            nPlayouts++;
-            if (ITERATIONS_BUDGET>0 && nPlayouts>ITERATIONS_BUDGET) break;
-            monteCarloRun(playerForThisComputation, cutOffTime);
-            logTimeAndDepth(System.nanoTime() - roundStart, ps);
-            
-            // If there is only one possible action at the root, there is no reason
-            // to continue running the algorithm.
-            if (root.children.size() == 1 && !root.hasMoreActions) {
-                break;
-            }
-        }
-        
-        total_cycles_executed++;
+    }
+    
+    // Overridden because the rewards are divided by the upper bound, so
+    // the worst one is -1 rather than the bound of the evaluation function.
+    @Override
+    protected float virtualLoss(MCTSNode node) {
+        return 1;
     }
     
     // Overridden so that the reward from the playout is computed differently.
     @Override
     public double monteCarloRun(int player, long cutOffTime) throws Exception {
-        MCTSNode leaf = root.UCTSelectLeaf(player, 1-player, MAX_TREE_DEPTH, true);
+        MCTSNode leaf = selectLeaf(player, true);
         if (leaf.depth > maxDepth) {
             maxDepth = leaf.depth;
         }
         
         if (leaf!=null) {
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME, leaf.getAssignedAbstractActions(), player);
             double evaluation = sumUpIntermediateResults() / upperBound;
-            Backpropagate(leaf, evaluation);
+            backup(leaf, evaluation);
             
             total_runs++;
             total_runs_this_move++;
@@ -170,23 +141,27 @@ public class WPMCTS extends BasicMCTS {
         }
     }
     
+    // The playouts of this algorithm have always been played in turns (see
+    // Playout), and its results depend on it.
+    @Override
+    protected Playout makePlayout() {
+        return new Playout(defaultPolicy, true);
+    }
+    
     // Re-implemented so that the algorithm stores scores of the states encountered
     // during the playout.
     public void simulate(GameState gs, int time, Map<Long, UpdateableAbstractAction> aaas, int maxPlayer) throws Exception {
         boolean gameover = false;
         float initialEval = ef.evaluate(maxPlayer, 1-maxPlayer, gs);
         intermediateResults = new ArrayList<>();
-        RandomScriptedAI randomPlayer1 = (RandomScriptedAI) defaultPolicy.clone();
-        randomPlayer1.setAbstractActions(aaas);
-        RandomScriptedAI randomPlayer2 = (RandomScriptedAI) defaultPolicy.clone();
-        randomPlayer2.setAbstractActions(aaas);
+        Playout p = getPlayout();
+        p.start(aaas);
         
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.fastForward(time);
             } else {
-                gs.issue(defaultPolicy.getAction(0, gs));
-                gs.issue(defaultPolicy.getAction(1, gs));
+                p.issueActions(gs);
                 
                 if (relative) {
                     intermediateResults.add(ef.evaluate(maxPlayer, 1-maxPlayer, gs) - initialEval);
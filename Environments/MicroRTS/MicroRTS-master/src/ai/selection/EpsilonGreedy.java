@@ -6,9 +6,10 @@
 package ai.selection;
 
 import ai.mcts.uct.MCTSNode;
-import java.util.Random;
+import java.util.SplittableRandom;
 import rts.GameState;
 import rts.PlayerAction;
+import util.RandomSource;
 
 /**
  * Picks the best child with probability epsilon and a random different
@@ -17,7 +18,6 @@ import rts.PlayerAction;
 public class EpsilonGreedy extends SelectionFunction {
     public final double epsilon;
     private UCB ucb = new UCB();
-    public static Random r = new Random();
     
     public EpsilonGreedy(double epsilon) {
         this.epsilon = epsilon;
@@ -44,8 +44,8 @@ public class EpsilonGreedy extends SelectionFunction {
                 {
                     MCTSNode child = node.children.get(i);
                     
-                    if (child.visit_count != 0) {
-                        double score = child.accum_evaluation / child.visit_count;
+                    if (child.getVisitCount() != 0) {
+                        double score = child.getAccumEvaluation() / child.getVisitCount();
 
                         if (bestChild == null ||
                             (score > bestScore && node.type == 0) ||
@@ -58,6 +58,7 @@ public class EpsilonGreedy extends SelectionFunction {
                     }
                 }
 
+                SplittableRandom r = RandomSource.current();
                 if (bestChild != null && r.nextDouble() < epsilon)
                 {
                     return bestChild;
@@ -91,20 +92,15 @@ public class EpsilonGreedy extends SelectionFunction {
     }
     
     private MCTSNode expandNode(MCTSNode node) throws Exception {
-        if (node.moveGenerator==null) 
+        if (node.type == -1) 
         {
             return node;
         }
-        PlayerAction a = node.moveGenerator.getNextAction(0);
-        if (a!=null) 
+        MCTSNode newNode = node.expand();
+        if (newNode != null) 
         {
-            node.actions.add(a);
-            GameState gs2 = node.gs.cloneIssue(a);                
-            MCTSNode newNode = node.makeNewChild(gs2, a);
-            node.children.add(newNode);
             return newNode;                
         } else {
-            node.hasMoreActions = false;
             return node;
         }
     }
@@ -6,6 +6,7 @@
 package ai.selection;
 
 import ai.mcts.uct.MCTSNode;
+import ai.mcts.uct.NodeArena;
 
 /**
  * Computes the UCB scores of all child nodes and selects the one with the
@@ -16,27 +17,26 @@ public class UCB extends SelectionFunction {
     
     @Override
     public MCTSNode getBestChild(MCTSNode node) {
+        NodeArena arena = node.getArena();
+        double logVisits = arena.getLogVisitCount(node.getId());
+        double bound = node.evaluation_bound;
+        double sign = node.type == 0 ? 1 : -1;
+        int n = node.children.size();
         double best_score = 0;
-        MCTSNode best = null;
-        for (MCTSNode child : node.children) {
-            double exploitation = ((double)child.accum_evaluation) / child.visit_count;
-            double exploration = Math.sqrt(Math.log((double)node.visit_count)/child.visit_count);
-            
-            if (node.type == 0) {
-                exploitation = (node.evaluation_bound + exploitation) / (2 * node.evaluation_bound);
-            }
-            else {
-                exploitation = (node.evaluation_bound - exploitation) / (2 * node.evaluation_bound);
-            }
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            int child = node.getChildId(i);
+            double exploitation = (bound + sign * arena.getMean(child)) / (2 * bound);
+            double exploration = Math.sqrt(logVisits/arena.getVisitCount(child));
 
             double tmp = exploitation + C*exploration;
             
-            if (best==null || tmp>best_score) {
-                best = child;
+            if (best==-1 || tmp>best_score) {
+                best = i;
                 best_score = tmp;
             }
         }
         
-        return best;
+        return best == -1 ? null : node.children.get(best);
     }
 }
@@ -5,6 +5,7 @@
 package ai.selection;
 
 import ai.mcts.uct.MCTSNode;
+import ai.mcts.uct.NodeArena;
 
 /**
  * The same as UCB, except it doesn't scale the rewards to between 0 and 1.
@@ -14,22 +15,26 @@ public class UCBwoScaling extends SelectionFunction {
     
     @Override
     public MCTSNode getBestChild(MCTSNode node) {
+        NodeArena arena = node.getArena();
+        double logVisits = arena.getLogVisitCount(node.getId());
+        int n = node.children.size();
         double best_score = 0;
-        MCTSNode best = null;
-        for (MCTSNode child : node.children) {
-            double exploitation = ((double)child.accum_evaluation) / child.visit_count;
-            double exploration = Math.sqrt(Math.log((double)node.visit_count)/child.visit_count);
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            int child = node.getChildId(i);
+            double exploitation = arena.getMean(child);
+            double exploration = Math.sqrt(logVisits/arena.getVisitCount(child));
             
             double tmp = node.type == 0 ? (exploitation + exploration) : (exploitation - exploration);
             
-            if (best==null ||
+            if (best==-1 ||
                 (node.type == 0 && tmp>best_score) ||
                 (node.type == 1 && tmp<best_score)) {
-                best = child;
+                best = i;
                 best_score = tmp;
             }
         }
         
-        return best;
+        return best == -1 ? null : node.children.get(best);
     }
 }
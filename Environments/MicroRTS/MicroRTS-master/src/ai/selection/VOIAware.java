@@ -6,6 +6,7 @@
 package ai.selection;
 
 import ai.mcts.uct.MCTSNode;
+import ai.mcts.uct.NodeArena;
 
 /**
  * Selects the best child by estimating the value of information that can
@@ -21,73 +22,99 @@ public class VOIAware extends SelectionFunction {
         }
         
         if (node.parent == null) {
-            MCTSNode bestChild = null;
-            MCTSNode secondBestChild = null;
+            NodeArena arena = node.getArena();
+            int bestChild = -1;
+            int secondBestChild = -1;
             double secondBestScore = 0.0;
             double bestScore = 0.0;
-            for (MCTSNode child : node.children)
+            int n = node.children.size();
+            for (int i = 0; i < n; i++)
             {
-                double childScore = (1.0 + child.accum_evaluation / child.visit_count) / 2;
-                if ((childScore > bestScore && node.type == 0) || (childScore < bestScore && node.type == 1) || bestChild == null)
+                int child = node.getChildId(i);
+                double childScore = average(arena, child);
+                if ((childScore > bestScore && node.type == 0) || (childScore < bestScore && node.type == 1) || bestChild == -1)
                 {
                     secondBestScore = bestScore;
                     bestScore = childScore;
                     secondBestChild = bestChild;
                     bestChild = child;
                 }
-                else if ((childScore > secondBestScore && node.type == 0) || (childScore < secondBestScore && node.type == 1) || secondBestChild == null)
+                else if ((childScore > secondBestScore && node.type == 0) || (childScore < secondBestScore && node.type == 1) || secondBestChild == -1)
                 {
                     secondBestChild = child;
                     secondBestScore = childScore;
                 }
             }
 
-            MCTSNode childWithBestVOI = null;
+            // The values of the best child are the same for all the others.
+            double bestChildAvgVal = bestScore;
+            int childWithBestVOI = -1;
             bestScore = 0.0;
-            for (MCTSNode child : node.children)
+            for (int i = 0; i < n; i++)
             {
+                int child = node.getChildId(i);
                 double childScore;
                 if (child == bestChild) {
-                    childScore = GetVOIBest(bestChild, secondBestChild);
+                    childScore = GetVOIBest(arena, bestChildAvgVal, bestChild, secondBestChild);
                 }
                 else
                 {
-                    childScore = GetVOIOther(bestChild, child);
+                    // The VOI of the other children is at most the factor
+                    // in front of the exponential, so if that isn't better
+                    // than the best VOI so far, it needn't be computed.
+                    // The factor is only a bound when it isn't negative,
+                    // which it is when the evaluations were scaled above 1
+                    // (e.g. by RQBonusMCTS).
+                    if (node.type == 0 && childWithBestVOI != -1 && bestChildAvgVal <= 1 &&
+                        (1 - bestChildAvgVal) / (arena.getVisitCount(child) + 1) <= bestScore) {
+                        continue;
+                    }
+                    childScore = GetVOIOther(arena, bestChildAvgVal, child);
                 }
 
-                if ((childScore > bestScore && node.type == 0) || (childScore < bestScore && node.type == 1) || childWithBestVOI == null)
+                if ((childScore > bestScore && node.type == 0) || (childScore < bestScore && node.type == 1) || childWithBestVOI == -1)
                 {
                     bestScore = childScore;
-                    childWithBestVOI = child;
+                    childWithBestVOI = i;
                 }
             }
 
-            return childWithBestVOI;
+            return childWithBestVOI == -1 ? null : node.children.get(childWithBestVOI);
         }
         else {
             return ucb.getBestChild(node);
         }
     }
     
+    /**
+    * The mean evaluation of the given child, scaled to between 0 and 1.
+    */
+    private static double average(NodeArena arena, int child)
+    {
+        return (1.0 + (float)arena.getMean(child)) / 2;
+    }
+    
     /**
     * Computes an estimate of the VOI obtained by sampling the current best child node.
     */
-    private double GetVOIBest(MCTSNode bestChild, MCTSNode secondBestChild)
+    private static double GetVOIBest(NodeArena arena, double bestChildAvgVal, int bestChild, int secondBestChild)
     {
-        double bestChildAvgVal = (1.0 + bestChild.accum_evaluation / bestChild.visit_count) / 2;
-        double secondBestChildAvgVal = (1.0 + secondBestChild.accum_evaluation / secondBestChild.visit_count) / 2;
-        return secondBestChildAvgVal / (bestChild.visit_count + 1) *
-            Math.exp(-2.0 * Math.pow(bestChildAvgVal - secondBestChildAvgVal, 2.0) * bestChild.visit_count);
+        double secondBestChildAvgVal = average(arena, secondBestChild);
+        double difference = bestChildAvgVal - secondBestChildAvgVal;
+        int visits = arena.getVisitCount(bestChild);
+        return secondBestChildAvgVal / (visits + 1) *
+            Math.exp(-2.0 * (difference * difference) * visits);
     }
 
     /**
     * Computes an estimate of the VOI obtained by a child node that isn't currently the best.
     */
-    private double GetVOIOther(MCTSNode bestChild, MCTSNode otherChild)
+    private static double GetVOIOther(NodeArena arena, double bestChildAvgVal, int otherChild)
     {
-        double bestChildAvgVal = (1.0 + bestChild.accum_evaluation / bestChild.visit_count) / 2;
-        double otherChildAvgVal = (1.0 + otherChild.accum_evaluation / otherChild.visit_count) / 2;
-        return (1 - bestChildAvgVal) / (otherChild.visit_count + 1) *
-            Math.exp(-2.0 * Math.pow(bestChildAvgVal - otherChildAvgVal, 2.0) * otherChild.visit_count);
+        double otherChildAvgVal = average(arena, otherChild);
+        double difference = bestChildAvgVal - otherChildAvgVal;
+        int visits = arena.getVisitCount(otherChild);
+        return (1 - bestChildAvgVal) / (visits + 1) *
+            Math.exp(-2.0 * (difference * difference) * visits);
     }
 }
\ No newline at end of file
@@ -15,18 +15,11 @@ import java.util.HashMap;
 import java.util.Map;
 import rts.units.Unit;
 import java.nio.file.Paths;
-import javax.xml.XMLConstants;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import org.xml.sax.SAXException;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import rts.PhysicalGameState;
 import org.w3c.dom.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -46,38 +39,27 @@ public class BattleFactory {
     private static final Map<String, Unit> _unitCache = new HashMap<String, Unit>();
  
     private static final String _battleSchemaFile = Paths.get(baseFolder, _battleDbDir, "Battle.xsd").toString();
-    private static Schema _battleSchema;
+    
+    /**
+     * The battles that were already created, by their names. The game
+     * states of the battles are only ever cloned, so they can be shared
+     * by all the benchmarks that play the same battle.
+     */
+    private static final Map<String, BattleSettings> _battleCache = new HashMap<>();
  
     private static boolean _isInitialized;
     
-    private static DocumentBuilder dBuilder;
     private static UnitTypeTable utt; 
     
     private static void Initialize() throws ResourceMissingException
     {
         if (!_isInitialized)
         {
-            try {
-                _isInitialized = true;
+            _isInitialized = true;
             
-                utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
-                
-                DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-                dBuilder = dbFactory.newDocumentBuilder();
-
-                SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-
-                CheckResource(_battleSchemaFile);
-                _battleSchema = factory.newSchema(new File(_battleSchemaFile));
-            }
-            catch (SAXException e) {
-                System.out.println("Problem with loading XML schema.");
-                System.exit(-69);
-            }
-            catch (ParserConfigurationException e) {
-                System.out.println("Problem with creating document builder.");
-                System.exit(-6969);
-            }
+            utt = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL, UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
+            
+            CheckResource(_battleSchemaFile);
         }
     }
  
@@ -86,17 +68,21 @@ public class BattleFactory {
      * @param id Name of the file with the battle config.
      * @param repeats How many times should be the battle repeated.
      */
-    public static BattleSettings MakeBattle(String id, int repeats) throws ResourceMissingException, SAXException, IOException, InvalidXmlDataException
+    public static synchronized BattleSettings MakeBattle(String id, int repeats) throws ResourceMissingException, SAXException, IOException, InvalidXmlDataException
     {
         Initialize();
-        String docFile = Paths.get(baseFolder, _battleDbDir, id + ".xml").toString();
-        CheckResource(docFile);     
-        _battleSchema.newValidator().validate(new StreamSource(new File(docFile)));
+        BattleSettings battle = _battleCache.get(id);
+        if (battle == null)
+        {
+            String docFile = Paths.get(baseFolder, _battleDbDir, id + ".xml").toString();
+            CheckResource(docFile);     
  
-        List<Map<String, AtomicInteger>> unitCounts = Arrays.asList(new HashMap<String, AtomicInteger>(), new HashMap<String, AtomicInteger>());
-        PhysicalGameState gameState = MakeGameState(dBuilder.parse(new File(docFile)), unitCounts);
-        BattleSettings battle = new BattleSettings(gameState, repeats, id, unitCounts, utt);
-        return battle;
+            List<Map<String, AtomicInteger>> unitCounts = Arrays.asList(new HashMap<String, AtomicInteger>(), new HashMap<String, AtomicInteger>());
+            PhysicalGameState gameState = MakeGameState(ConfigCache.Load(docFile, _battleSchemaFile), unitCounts);
+            battle = new BattleSettings(gameState, 1, id, unitCounts, utt);
+            _battleCache.put(id, battle);
+        }
+        return new BattleSettings(battle.gameState, repeats, id, battle.unitCounts, utt);
     }
  
     private static PhysicalGameState MakeGameState(Document doc, List<Map<String, AtomicInteger>> unitCounts) throws InvalidXmlDataException
@@ -13,18 +13,21 @@ import java.util.ArrayList;
 import ai.core.AI;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.io.PrintStream;
 import java.util.LinkedList;
-import java.util.zip.ZipOutputStream;
 import rts.GameState;
 import rts.PartiallyObservableGameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
-import rts.Trace;
-import rts.TraceEntry;
+import rts.TraceWriter;
 import static tests.Experimenter.GC_EACH_FRAME;
-import util.XMLWriter;
+import util.RandomSource;
 import java.nio.file.Paths;
 import java.io.File;
 import rts.units.Unit;
@@ -34,7 +37,12 @@ import ai.mcts.uct.SigmoidMCTS;
 import ai.portfolio.portfoliogreedysearch.DependentUnitScript;
 import ai.portfolio.portfoliogreedysearch.Kiter;
 import ai.portfolio.portfoliogreedysearch.NOKAV;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import ai.mcts.uct.UCT;
 import ai.evaluation.*;
 import ai.mcts.uct.*;
@@ -51,14 +59,30 @@ import ai.RandomAI;
  */
 public class Benchmark
 {
-    private static Random r = new Random();
-    
     private final List<BattleSettings> _battles;
     private final List<AI> _players;
     private final List<String> _playerNames;
     private final int _roundMax;
     private final boolean _isSymmetric;
     private final String _name;
+    
+    /**
+     * The seed from which the seeds of the games are derived, or null if
+     * the games aren't seeded.
+     */
+    private Long _seed = null;
+    
+    /**
+     * Determines whether the moves of the players are measured, see
+     * {@link MoveAccounting}.
+     */
+    private boolean _moveAccounting = false;
+    
+    /**
+     * The journal of the finished games of the benchmark set, or null if
+     * the games aren't recorded.
+     */
+    private GameJournal _journal = null;
 
     /**
     * Creates a benchmark with given parameters.    
@@ -79,46 +103,142 @@ public class Benchmark
         _playerNames = playerNames;
     }
 
+    /**
+    * Seeds the games of this benchmark. Every game gets its own generator,
+    * derived from the seed and from the number of the game, for its random
+    * events and for the seeds of its search algorithms. A game can therefore
+    * be replayed by itself, and it is played the same way regardless of how
+    * many games are played at the same time.
+    */
+    public void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /**
+    * Measures the CPU time and the allocated memory of every move of the
+    * players, and the garbage collections that happened during it, instead
+    * of collecting garbage before every frame. The moves are written to
+    * a file next to the results, named after the benchmark with a "_moves"
+    * suffix.
+    */
+    public void setMoveAccounting(boolean moveAccounting) {
+        _moveAccounting = moveAccounting;
+    }
+
+    /**
+    * Records every finished game in the given journal, and doesn't play the
+    * games that are already recorded in it, using their recorded outcomes
+    * instead. A game is identified by the name of the benchmark, the number,
+    * battle, repeat and iteration of the game, and its seed, so it is only
+    * skipped if it would be played the same way. The outcomes are processed
+    * as if the games were played again, so the result file is written
+    * whole, with the same symwins, and it is the same as if the run hadn't
+    * been interrupted.
+    */
+    public void setJournal(GameJournal journal) {
+        _journal = journal;
+    }
+
     /**
     * Starts this benchmark.
     */
-    public void Run(String resultDir, boolean visualize, boolean partiallyObservable, boolean saveTrace, String traceDir) throws Exception {      
+    public void Run(String resultDir, boolean visualize, boolean partiallyObservable, boolean saveTrace, String traceDir) throws Exception {
+        Run(resultDir, visualize, partiallyObservable, saveTrace, traceDir, 1);
+    }
+
+    /**
+    * Starts this benchmark, playing up to {@code workers} games at the same time.
+    * The games are independent of each other, so they are all handed to a pool of
+    * worker threads at once. Their outcomes are then processed in the same order
+    * in which a serial run would play them, so the symwins, the aggregated results
+    * and the rows of the result file are the same as with a single worker.
+    * @param workers The number of games played at the same time. If it is zero or
+    * less, one game per available processor is played.
+    */
+    public void Run(String resultDir, boolean visualize, boolean partiallyObservable, boolean saveTrace, String traceDir, int workers) throws Exception {      
         System.out.println("Benchmark started");
         System.out.println(_players.get(0).toString());
         System.out.println(_players.get(1).toString());
         
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        
         Results sumResults = new Results();
         
         long startTime = System.currentTimeMillis();
-        int battleNumber = 1;
         boolean prevUnfinishedOrDraw = false;
 
         File resultsFile = new File(Paths.get(resultDir, _name + ".csv").toString());
-        if (resultsFile.exists())
-            System.out.println("[WARNING] File " + resultsFile.getPath() + " already exists, overwriting");
         
         resultsFile.getParentFile().mkdirs();
+        File movesFile = new File(Paths.get(resultDir, _name + "_moves.csv").toString());
+        MoveAccounting.Totals[] moveTotals = new MoveAccounting.Totals[] {new MoveAccounting.Totals(), new MoveAccounting.Totals()};
 
         List<AI> bots2 = new LinkedList<>();
         for(AI bot:_players) bots2.add(bot.clone());
         
-        try (PrintStream output = new PrintStream(resultsFile)) {
+        // Create all the games in the order in which they would be played
+        // by a serial run.
+        // The games that were recorded in the journal return their recorded
+        // outcomes instead of being played.
+        List<Callable<GameOutcome>> games = new ArrayList<>();
+        int finished = 0;
+        for (Game game : MakeGames(bots2, visualize, partiallyObservable, saveTrace, traceDir, workers)) {
+            GameOutcome recorded = _journal == null ? null : GameOutcome.FromJournal(_journal.Get(game.JournalKey()));
+            if (recorded != null) {
+                games.add(() -> recorded);
+                ++finished;
+            }
+            else {
+                games.add(game);
+            }
+        }
+        
+        if (finished > 0) {
+            System.out.println("Resuming, " + finished + " of " + games.size() + " games were already finished");
+        }
+        else if (resultsFile.exists()) {
+            System.out.println("[WARNING] File " + resultsFile.getPath() + " already exists, overwriting");
+        }
+        
+        // The moves of the finished games were already written, so the moves
+        // of the other games are appended to them.
+        boolean appendMoves = finished > 0 && movesFile.exists();
+        
+        ExecutorService pool = null;
+        List<Future<GameOutcome>> futures = new ArrayList<>();
+        if (workers > 1) {
+            pool = Executors.newFixedThreadPool(workers);
+            for (Callable<GameOutcome> game : games) {
+                futures.add(pool.submit(game));
+            }
+        }
+        int gameIndex = 0;
+        
+        // The moves of the games played by the worker processes are written
+        // with the moves of the other games, in the order of the games.
+        File[] workerMovesFiles = _moveAccounting ? WorkerMovesFiles(movesFile) : new File[0];
+        Map<Integer, List<String>> workerMoves = ReadWorkerMoves(workerMovesFiles);
+        
+        try (PrintStream output = new PrintStream(resultsFile);
+             PrintStream movesOutput = _moveAccounting ? new PrintStream(new FileOutputStream(movesFile, appendMoves)) : null) {
             output.println(
                 "battleName; p1Win; p2Win; p1hull; p2hull; rounds;"
             );
+            if (movesOutput != null && !appendMoves) {
+                MoveAccounting.OutputHeader(movesOutput);
+            }
             
             // Run every battle specified in the becnhmark.
             for(BattleSettings bs:_battles) {
                 Results res = new Results();
-                
-                PhysicalGameState pgs = bs.gameState;   
 
                 System.out.println("Battle " + bs.name + " started for " + bs.repeats + " repeats");
                 
                 // Run the battle a given number of times.
                 for (int i = 0; i < bs.repeats; i++) {            
                     int ai1_idx = 0;
-                    int ai2_idx = 1;
                         
                     // A variable used to store the remaining hps of the two players after
                     // a battle. As it isn't reset between iterations, it can be used to
@@ -136,83 +256,36 @@ public class Benchmark
                     // at the same time, but since this is the way I did it in Children
                     // of the Galaxy, I kept it this way.
                     for (int iter = 0; iter < 2; ++iter) {
-                        System.out.println("  Iter number " + battleNumber++ + " started");
-                        
-                        // Cloning just in case an AI has a memory leak.
-                        // By using a clone, it is discarded, along with the leaked memory,
-                        // after each game, rather than accumulating over several games.
-                        AI ai1 = bots2.get(ai1_idx).clone();
-                        AI ai2 = bots2.get(ai2_idx).clone();
-                        long lastTimeActionIssued = 0;
-
-                        ai1.reset();
-                        ai2.reset();
-                        
-                        String rs = "" + (r.nextInt(900000) + 100000);
-                        if (ai1 instanceof BasicMCTS) {
-                            ((BasicMCTS)ai1).setBattleName(bs.name);
-                            ((BasicMCTS)ai1).setRndBattleString(rs);
-                        }
-                        if (ai2 instanceof BasicMCTS) {
-                            ((BasicMCTS)ai2).setBattleName(bs.name);
-                            ((BasicMCTS)ai2).setRndBattleString(rs);
+                        // Either play the game now or wait for a worker to finish it.
+                        GameOutcome outcome;
+                        try {
+                            outcome = pool == null ? games.get(gameIndex).call() : futures.get(gameIndex).get();
                         }
-
-                        GameState gs = new GameState(pgs.clone(), bs.utt);
-                        PhysicalGameStateJFrame w = null;
-                        if (visualize) w = PhysicalGameStatePanel.newVisualizer(gs, 600, 600, partiallyObservable);
-
-                        boolean gameover = false;
-                        Trace trace = null;
-                        TraceEntry te;
-                        if(saveTrace){
-                                trace = new Trace(bs.utt);
-                                te = new TraceEntry(gs.getPhysicalGameState().clone(),gs.getTime());
-                            trace.addEntry(te);
+                        catch (ExecutionException e) {
+                            if (e.getCause() instanceof Exception) {
+                                throw (Exception)e.getCause();
+                            }
+                            throw e;
                         }
+                        ++gameIndex;
                         
-                        int roundCounter = 0;
-                        
-                        // Run the simulation.
-                        do {
-                            ++roundCounter;
-                            
-                            if (GC_EACH_FRAME) System.gc();
-                            PlayerAction pa1 = null, pa2 = null;
-                            if (partiallyObservable) {          
-                                pa1 = ai1.getAction(0, new PartiallyObservableGameState(gs,0));
-                                pa2 = ai2.getAction(1, new PartiallyObservableGameState(gs,1));
-                            } else {
-                                pa1 = ai1.getAction(0, gs);
-                                pa2 = ai2.getAction(1, gs);
+                        if (movesOutput != null && outcome.moves != null) {
+                            MoveAccounting.OutputMoves(movesOutput, bs, gameIndex, outcome.moves);
+                            for (MoveAccounting.Move m : outcome.moves) {
+                                moveTotals[m.player].add(m);
                             }
-                            if (saveTrace && (!pa1.isEmpty() || !pa2.isEmpty())) {
-                                te = new TraceEntry(gs.getPhysicalGameState().clone(),gs.getTime());
-                                te.addPlayerAction(pa1.clone());
-                                te.addPlayerAction(pa2.clone());
-                                trace.addEntry(te);
-                            }
-
-                            if (gs.issueSafe(pa1)) lastTimeActionIssued = gs.getTime();
-                            if (gs.issueSafe(pa2)) lastTimeActionIssued = gs.getTime();
-                            gameover = gs.cycle();
-                            if (w!=null) {
-                                w.setStateCloning(gs);
-                                w.repaint();
-                                try {
-                                    Thread.sleep(1);    // give time to the window to repaint
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
+                        }
+                        else if (movesOutput != null && workerMoves.containsKey(gameIndex)) {
+                            for (String line : workerMoves.get(gameIndex)) {
+                                movesOutput.println(line);
                             }
-                        } while (!gameover && (gs.getTime() < _roundMax));
-                        ai1.gameOver(gs.winner());
-                        ai2.gameOver(gs.winner());
+                        }
+                        
+                        int roundCounter = outcome.rounds;
                         
                         res.RoundCounts.add(roundCounter);
                         
-                        if (w!=null) w.dispose();
-                        int winner = gs.winner();
+                        int winner = outcome.winner;
                         int winnerIndex = ai1_idx == 0 ? winner : 1 - winner;
                                 
                         float h0 = 0;
@@ -229,16 +302,7 @@ public class Benchmark
                             hps[winnerIndex] = 0.0f;   
                             
                             // Count the remaining hp of the winner.
-                            for (Unit u:gs.getUnits()) {
-                                if (u.getPlayer() == winner) {
-                                    if (u.getPlayer() == ai1_idx) {
-                                        hps[0] += u.getHitPoints();
-                                    }
-                                    else {
-                                        hps[1] += u.getHitPoints();
-                                    }
-                                }
-                            }
+                            hps[winnerIndex] += outcome.winnerHp;
                             
                             // This is probably redundant, as the hpsSum variable
                             // only comes into play if there was no winner in either game.
@@ -255,21 +319,15 @@ public class Benchmark
                             // If the maximum number of rounds wasn't reached, the game
                             // was a draw which means that both players ended with 0 hp,
                             // so there is no need to update any hp-related variables.
-                            if (gs.getTime() != _roundMax) {                        
+                            if (outcome.time != _roundMax) {                        
                                 res.WinCounts.get(2).incrementAndGet();
                             }
                             // Otherwise, the game didn't finish.
                             else {
                                 res.Unfinished++;
                                 
-                                for (Unit u:gs.getUnits()) {
-                                    if (u.getPlayer() == ai1_idx) {
-                                        h0 += u.getHitPoints();
-                                    }
-                                    else {
-                                        h1 += u.getHitPoints();
-                                    }
-                                }
+                                h0 = outcome.hp[0];
+                                h1 = outcome.hp[1];
                                 
                                 hpsSum[0] += h0;
                                 hpsSum[1] += h1;
@@ -283,21 +341,6 @@ public class Benchmark
                                 res.HullRemaining.get(1).add(h1);
                             }
                         }
-                        
-                        if(saveTrace){
-                                te = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
-                                trace.addEntry(te);
-                                XMLWriter xml;
-                                ZipOutputStream zip = null;
-                                String filename=ai1.toString()+"Vs"+ai2.toString()+"-"+(i*2 + iter)+"-"+i;
-                                filename=filename.replace("/", "");
-                                filename=filename.replace(")", "");
-                                filename=filename.replace("(", "");
-                                filename=traceDir+"/"+filename;
-                                xml = new XMLWriter(new FileWriter(filename+".xml"));
-                                trace.toxml(xml);
-                                xml.flush();
-                        }
 
                         if (!_isSymmetric) {
                             break;
@@ -330,7 +373,6 @@ public class Benchmark
                             }
                             
                             ai1_idx = 1;
-                            ai2_idx = 0;
                         }
                         
                         prevUnfinishedOrDraw = winner == -1;
@@ -355,11 +397,467 @@ public class Benchmark
                 sumResults.add(res);
             }
         }
+        finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        for (File part : workerMovesFiles) {
+            part.delete();
+        }
         OutputFinalBenchmarkResults(sumResults);
+        if (_moveAccounting) {
+            MoveAccounting.OutputTotals(moveTotals[0], _players.get(0).toString());
+            MoveAccounting.OutputTotals(moveTotals[1], _players.get(1).toString());
+        }
         long time = System.currentTimeMillis() - startTime;
         String timeString = String.format("%02d:%02d:%02d.%d", (time / (3600000)), (time / 60000) % 60, (time / 1000) % 60, time % 1000);
         System.out.println("Total benchmark time: " + timeString + "\n");
     }
+    
+    /**
+    * Plays the games of the given benchmarks as one of several worker
+    * processes, which take the games from the given queue, playing up to
+    * {@code workers} games at the same time. Only the games that aren't
+    * recorded in the journals of the benchmarks (see {@link #setJournal(GameJournal)})
+    * and that no other worker took are played, and they are recorded in the
+    * journals. The results are written by {@link #Run} once all the games are
+    * recorded. If the moves are measured, the moves of the worker are written
+    * to a file of its own for every benchmark, which is merged into the file
+    * of the moves by {@link #Run}.
+    */
+    public static void Work(List<Benchmark> benchmarks, String resultDir, GameQueue queue, int workers, String worker) throws Exception {
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        
+        // The games of all the benchmarks are played by one pool, so the
+        // threads don't wait for the last game of a benchmark before they
+        // start the games of the next one. Every game is taken from the queue
+        // only when a thread is free to play it, so the games are spread
+        // evenly amongst the workers.
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Void>> futures = new ArrayList<>();
+        List<PrintStream> movesOutputs = new ArrayList<>();
+        try {
+            for (Benchmark benchmark : benchmarks) {
+                PrintStream movesOutput = null;
+                if (benchmark._moveAccounting) {
+                    File movesFile = new File(Paths.get(resultDir, benchmark._name + "_moves." + worker + ".csv").toString());
+                    movesOutput = new PrintStream(new FileOutputStream(movesFile, true));
+                    movesOutputs.add(movesOutput);
+                }
+                for (Callable<Void> task : benchmark.WorkTasks(queue, workers, movesOutput)) {
+                    futures.add(pool.submit(task));
+                }
+            }
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            for (PrintStream movesOutput : movesOutputs) {
+                movesOutput.close();
+            }
+        }
+    }
+    
+    /**
+    * Returns the tasks that play the games of this benchmark for {@link #Work},
+    * in the order in which they would be played by a serial run. A task takes
+    * its game from the queue when it starts, and writes the moves of the
+    * game to the given stream, unless it is null.
+    */
+    private List<Callable<Void>> WorkTasks(GameQueue queue, int workers, PrintStream movesOutput) {
+        List<AI> bots2 = new LinkedList<>();
+        for(AI bot:_players) bots2.add(bot.clone());
+        
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Game game : MakeGames(bots2, false, false, false, "", workers)) {
+            tasks.add(() -> {
+                String name = game.QueueName();
+                if (_journal.Get(game.JournalKey()) == null && queue.Take(name)) {
+                    try {
+                        GameOutcome outcome = game.call();
+                        if (movesOutput != null) {
+                            synchronized (movesOutput) {
+                                MoveAccounting.OutputMoves(movesOutput, game.bs, game.number, outcome.moves);
+                            }
+                        }
+                    }
+                    finally {
+                        queue.Finish(name);
+                    }
+                }
+                return null;
+            });
+        }
+        return tasks;
+    }
+    
+    /**
+    * Returns whether a game of this benchmark isn't recorded in the journal
+    * yet, but is being played by a worker that took it from the given queue.
+    * All the games are looked at, so the queue sees every abandoned game
+    * stay unchanged at the same time.
+    */
+    public boolean Waiting(GameQueue queue) throws Exception {
+        boolean waiting = false;
+        List<AI> bots2 = new LinkedList<>(_players);
+        for (Game game : MakeGames(bots2, false, false, false, "", 1)) {
+            if (_journal.Get(game.JournalKey()) == null && queue.Taken(game.QueueName())) {
+                waiting = true;
+            }
+        }
+        return waiting;
+    }
+    
+    /**
+     * Returns the files of the moves written by the worker processes (see
+     * {@link #Work}) next to the given file of the moves.
+     */
+    private File[] WorkerMovesFiles(File movesFile) {
+        String prefix = _name + "_moves.";
+        File[] parts = movesFile.getParentFile().listFiles((dir, name) ->
+            name.startsWith(prefix) && name.endsWith(".csv") && !name.equals(movesFile.getName()));
+        if (parts == null) {
+            return new File[0];
+        }
+        Arrays.sort(parts);
+        return parts;
+    }
+    
+    /**
+     * Reads the given files of the moves written by the worker processes,
+     * which are in the order in which the games finished, and returns the
+     * lines of every game by its number. If a game was played by more than
+     * one worker, e.g. by one that was thought to be dead, the moves of only
+     * one of them are kept.
+     */
+    private static Map<Integer, List<String>> ReadWorkerMoves(File[] parts) throws IOException {
+        Map<Integer, List<String>> moves = new HashMap<>();
+        for (File part : parts) {
+            Map<Integer, List<String>> partMoves = new HashMap<>();
+            for (String line : Files.readAllLines(part.toPath())) {
+                int game = Integer.parseInt(line.split(";", 3)[1]);
+                partMoves.computeIfAbsent(game, g -> new ArrayList<>()).add(line);
+            }
+            partMoves.forEach(moves::putIfAbsent);
+        }
+        return moves;
+    }
+    
+    /**
+     * Creates all the games of this benchmark in the order in which they are
+     * played by a serial run.
+     */
+    private List<Game> MakeGames(List<AI> bots, boolean visualize, boolean partiallyObservable, boolean saveTrace, String traceDir, int workers) {
+        List<Game> games = new ArrayList<>();
+        int battleNumber = 1;
+        for(BattleSettings bs:_battles) {
+            for (int i = 0; i < bs.repeats; i++) {
+                for (int iter = 0; iter < (_isSymmetric ? 2 : 1); ++iter) {
+                    games.add(new Game(bs, bots, i, iter, battleNumber++, visualize && workers == 1, partiallyObservable, saveTrace, traceDir, workers == 1));
+                }
+            }
+        }
+        return games;
+    }
+    
+    /**
+     * The information about a finished game that is needed to compute the results
+     * of the benchmark.
+     */
+    private static class GameOutcome {
+        /**
+         * The index of the player that won the game, or -1.
+         */
+        int winner;
+        
+        /**
+         * The sum of the remaining hit points of the winner's units.
+         */
+        float winnerHp;
+        
+        /**
+         * The sums of the remaining hit points of the units of the first and
+         * the second player of the benchmark.
+         */
+        float[] hp;
+        
+        /**
+         * The time at which the game ended.
+         */
+        int time;
+        
+        /**
+         * The number of rounds that were played.
+         */
+        int rounds;
+        
+        /**
+         * The measurements of the moves of the players, if they were measured.
+         */
+        List<MoveAccounting.Move> moves;
+        
+        /**
+         * Returns the outcome as it is recorded in the journal. The moves
+         * aren't recorded.
+         */
+        String ToJournal() {
+            return String.join(";",
+                String.valueOf(winner),
+                String.valueOf(winnerHp),
+                String.valueOf(hp[0]),
+                String.valueOf(hp[1]),
+                String.valueOf(time),
+                String.valueOf(rounds)
+            );
+        }
+        
+        /**
+         * Reads an outcome recorded in the journal. Returns null if there is
+         * no outcome or if it isn't complete.
+         */
+        static GameOutcome FromJournal(String recorded) {
+            if (recorded == null) {
+                return null;
+            }
+            String[] fields = recorded.split(";");
+            if (fields.length != 6) {
+                return null;
+            }
+            try {
+                GameOutcome outcome = new GameOutcome();
+                outcome.winner = Integer.parseInt(fields[0]);
+                outcome.winnerHp = Float.parseFloat(fields[1]);
+                outcome.hp = new float[] {Float.parseFloat(fields[2]), Float.parseFloat(fields[3])};
+                outcome.time = Integer.parseInt(fields[4]);
+                outcome.rounds = Integer.parseInt(fields[5]);
+                return outcome;
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * A single game of the benchmark, i.e. one iteration of one repeat of a battle.
+     * It only uses its own clones of the AIs and of the game state, so several
+     * games can be played at the same time.
+     */
+    private class Game implements Callable<GameOutcome> {
+        private final BattleSettings bs;
+        private final List<AI> bots;
+        private final int repeat;
+        private final int iter;
+        private final int number;
+        private final boolean visualize;
+        private final boolean partiallyObservable;
+        private final boolean saveTrace;
+        private final String traceDir;
+        
+        /**
+         * Determines whether garbage should be collected every frame. It only
+         * makes sense when the games are played one after another.
+         */
+        private final boolean collectGarbage;
+        
+        Game(BattleSettings bs, List<AI> bots, int repeat, int iter, int number, boolean visualize, boolean partiallyObservable, boolean saveTrace, String traceDir, boolean collectGarbage) {
+            this.bs = bs;
+            this.bots = bots;
+            this.repeat = repeat;
+            this.iter = iter;
+            this.number = number;
+            this.visualize = visualize;
+            this.partiallyObservable = partiallyObservable;
+            this.saveTrace = saveTrace;
+            this.traceDir = traceDir;
+            this.collectGarbage = collectGarbage;
+        }
+        
+        /**
+         * Returns the name of this game in the queue of the worker processes.
+         */
+        String QueueName() {
+            return _name + "_" + number;
+        }
+        
+        /**
+         * Returns the key of this game in the journal.
+         */
+        String JournalKey() {
+            return String.join(";",
+                _name,
+                String.valueOf(number),
+                bs.name,
+                String.valueOf(repeat),
+                String.valueOf(iter),
+                _seed == null ? "-" : String.valueOf(31 * _seed + number)
+            );
+        }
+        
+        @Override
+        public GameOutcome call() throws Exception {
+            GameOutcome outcome;
+            if (_seed == null) {
+                outcome = play(null);
+            }
+            else {
+                SplittableRandom random = new SplittableRandom(31 * _seed + number);
+                SplittableRandom previous = RandomSource.install(random.split());
+                try {
+                    outcome = play(random);
+                }
+                finally {
+                    RandomSource.install(previous);
+                }
+            }
+            if (_journal != null) {
+                _journal.Record(JournalKey(), outcome.ToJournal());
+            }
+            return outcome;
+        }
+        
+        /**
+         * Plays the game. If the random generator of the game is given, the
+         * search algorithms are seeded from it.
+         */
+        private GameOutcome play(SplittableRandom random) throws Exception {
+            System.out.println("  Iter number " + number + " started");
+            
+            // The players are switched in the second iteration.
+            int ai1_idx = iter == 0 ? 0 : 1;
+            int ai2_idx = 1 - ai1_idx;
+            
+            PhysicalGameState pgs = bs.gameState;
+            
+            // Cloning just in case an AI has a memory leak.
+            // By using a clone, it is discarded, along with the leaked memory,
+            // after each game, rather than accumulating over several games.
+            AI ai1 = bots.get(ai1_idx).clone();
+            AI ai2 = bots.get(ai2_idx).clone();
+            long lastTimeActionIssued = 0;
+
+            ai1.reset();
+            ai2.reset();
+            if (random != null) {
+                if (ai1 instanceof BasicMCTS) ((BasicMCTS)ai1).setSeed(random.nextLong());
+                if (ai2 instanceof BasicMCTS) ((BasicMCTS)ai2).setSeed(random.nextLong());
+            }
+
+            // The search logs of a battle are told apart by the number of the
+            // game, which is the same in every run and differs between games
+            // played at the same time.
+            String rs = String.valueOf(number);
+            if (ai1 instanceof BasicMCTS) {
+                ((BasicMCTS)ai1).setBattleName(bs.name);
+                ((BasicMCTS)ai1).setRndBattleString(rs);
+            }
+            if (ai2 instanceof BasicMCTS) {
+                ((BasicMCTS)ai2).setBattleName(bs.name);
+                ((BasicMCTS)ai2).setRndBattleString(rs);
+            }
+
+            GameState gs = new GameState(pgs.clone(), bs.utt);
+            PhysicalGameStateJFrame w = null;
+            if (visualize) w = PhysicalGameStatePanel.newVisualizer(gs, 600, 600, partiallyObservable);
+
+            boolean gameover = false;
+            // The trace is written while the game is played, see TraceWriter.
+            TraceWriter trace = null;
+            try {
+                if(saveTrace){
+                        String filename=ai1.toString()+"Vs"+ai2.toString()+"-"+(repeat*2 + iter)+"-"+repeat;
+                        filename=filename.replace("/", "");
+                        filename=filename.replace(")", "");
+                        filename=filename.replace("(", "");
+                        filename=traceDir+"/"+filename;
+                        trace = new TraceWriter(filename+".trace", bs.utt);
+                        trace.addEntry(gs);
+                }
+
+                int roundCounter = 0;
+                List<MoveAccounting.Move> moves = _moveAccounting ? new ArrayList<>() : null;
+
+                // Run the simulation.
+                do {
+                    ++roundCounter;
+
+                    if (GC_EACH_FRAME && collectGarbage && !_moveAccounting) System.gc();
+                    PlayerAction pa1 = null, pa2 = null;
+                    MoveAccounting.Sample start = null;
+                    GameState gs1 = partiallyObservable ? new PartiallyObservableGameState(gs,0) : gs;
+                    if (moves != null) start = MoveAccounting.Sample.Now();
+                    pa1 = ai1.getAction(0, gs1);
+                    if (moves != null) moves.add(new MoveAccounting.Move(gs.getTime(), ai1_idx, start, MoveAccounting.Sample.Now()));
+                    GameState gs2 = partiallyObservable ? new PartiallyObservableGameState(gs,1) : gs;
+                    if (moves != null) start = MoveAccounting.Sample.Now();
+                    pa2 = ai2.getAction(1, gs2);
+                    if (moves != null) moves.add(new MoveAccounting.Move(gs.getTime(), ai2_idx, start, MoveAccounting.Sample.Now()));
+                    if (saveTrace && (!pa1.isEmpty() || !pa2.isEmpty())) {
+                        trace.addEntry(gs, pa1, pa2);
+                    }
+
+                    if (gs.issueSafe(pa1)) lastTimeActionIssued = gs.getTime();
+                    if (gs.issueSafe(pa2)) lastTimeActionIssued = gs.getTime();
+                    gameover = gs.cycle();
+                    if (w!=null) {
+                        w.setStateCloning(gs);
+                        w.repaint();
+                        try {
+                            Thread.sleep(1);    // give time to the window to repaint
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } while (!gameover && (gs.getTime() < _roundMax));
+                ai1.gameOver(gs.winner());
+                ai2.gameOver(gs.winner());
+
+                if (w!=null) w.dispose();
+            
+                GameOutcome outcome = new GameOutcome();
+                outcome.winner = gs.winner();
+                outcome.time = gs.getTime();
+                outcome.rounds = roundCounter;
+                outcome.moves = moves;
+                outcome.hp = new float[] {0.0f, 0.0f};
+                for (Unit u:gs.getUnits()) {
+                    if (u.getPlayer() == outcome.winner) {
+                        outcome.winnerHp += u.getHitPoints();
+                    }
+                    if (u.getPlayer() == ai1_idx) {
+                        outcome.hp[0] += u.getHitPoints();
+                    }
+                    else {
+                        outcome.hp[1] += u.getHitPoints();
+                    }
+                }
+
+                if(saveTrace){
+                        trace.addEntry(gs);
+                }
+                
+                return outcome;
+            }
+            finally {
+                // Closing the trace writes its index, so even a game that
+                // failed leaves a trace that can be read.
+                if (trace != null) trace.close();
+            }
+        }
+    }
 
     /**
      * Prints out the final results to the console. Used at the end of the benchmark.
@@ -17,19 +17,16 @@ import ai.core.AI;
 import ai.mcts.uct.*;
 import java.io.File;
 import java.io.IOException;
-import javax.xml.XMLConstants;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import org.xml.sax.SAXException;
 import org.w3c.dom.*;
-import javax.xml.parsers.*;
 import util.Pair;
 import java.time.LocalDateTime;
 import ai.portfolio.portfoliogreedysearch.DependentUnitScript;
 import ai.portfolio.portfoliogreedysearch.Kiter;
 import ai.portfolio.portfoliogreedysearch.NOKAV;
-import ai.abstraction.pathfinding.AStarPathFinding;
+import ai.abstraction.pathfinding.BucketAStarPathFinding;
+import ai.abstraction.pathfinding.CachingPathFinding;
+import ai.abstraction.pathfinding.PathFinding;
 import java.util.Arrays;
 import ai.RandomScriptedAI;
 
@@ -43,60 +40,27 @@ public class BenchmarkFactory {
     private static final String _benchmarkSetDir = "Resources/BenchmarkSets";
     private static final String _battleSetDbDir = "Resources/BattleSets";
     private static final String _aiDbDir = "Resources/AIs";
+    
+    /**
+     * The number of paths cached for the scripts of a player when the
+     * PathCacheSize attribute isn't given.
+     */
+    private static final int DEFAULT_PATH_CACHE_SIZE = 10000;
 
     private static final String _benchmarkSchemaFile = Paths.get(baseFolder, _benchmarkDbDir, "Benchmark.xsd").toString();
     private static final String _benchmarkSetSchemaFile = Paths.get(baseFolder, _benchmarkSetDir, "BenchmarkSet.xsd").toString();
     private static final String _battleSetSchemaFile = Paths.get(baseFolder, _battleSetDbDir, "BattleSet.xsd").toString();
     private static final String _aiDbSchemaFile = Paths.get(baseFolder, _aiDbDir, "AI.xsd").toString();
 
-    private static Schema _benchmarkSchema;
-    private static Schema _benchmarkSetSchema;
-    private static Schema _battleSetSchema;
-    private static Schema _aiSchemaSet;
-    
-    private static DocumentBuilder dBuilder;
-
-    private static boolean _isInitialized;
-
-    private static void Initialize()
-    {
-        if (!_isInitialized)
-        {            
-            try {
-            _isInitialized = true;
-            
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            dBuilder = dbFactory.newDocumentBuilder();            
-            
-            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            
-            _benchmarkSchema = factory.newSchema(new File(_benchmarkSchemaFile));
-            _benchmarkSetSchema = factory.newSchema(new File(_benchmarkSetSchemaFile));
-            _battleSetSchema = factory.newSchema(new File(_battleSetSchemaFile));
-            _aiSchemaSet = factory.newSchema(new File(_aiDbSchemaFile));
-            }
-            catch (SAXException e) {
-                System.out.println("Problem with loading XML schema.");
-                System.exit(-69);
-            }
-            catch (ParserConfigurationException e) {
-                System.out.println("Problem with creating document builder.");
-                System.exit(-6969);
-            }
-        }
-    }
-
     /**
     * Creates and returns fully initialized benchmark specified in file with name {@code id}.    
     * @param id">Name of the file with the battle config.
     */
     public static List<Benchmark> MakeBenchmarkSet(String id) throws ResourceMissingException, SAXException, IOException, InvalidResourceReferenceException, InvalidXmlDataException
     {
-        Initialize();
         String docFile = Paths.get(baseFolder, _benchmarkSetDir, id + ".xml").toString();
         CheckResource(docFile);
-        Element root = dBuilder.parse(new File(docFile)).getDocumentElement();       
-        _benchmarkSetSchema.newValidator().validate(new StreamSource(new File(docFile)));
+        Element root = ConfigCache.Load(docFile, _benchmarkSetSchemaFile).getDocumentElement();
 
         NodeList benchmarksXml = root.getElementsByTagName("Benchmark");
         List<Benchmark> benchmarks = new ArrayList<>();
@@ -115,12 +79,22 @@ public class BenchmarkFactory {
         return benchmarks;
     }
 
+    /**
+    * Creates and returns the AI specified in the file with name {@code id} in the AI database,
+    * in the same way as for a player of a benchmark that refers to it.
+    * @param id Name of the file with the AI config.
+    * @param bmrkID The benchmark ID under which the AI logs its searches.
+    */
+    public static AI MakeAiPlayer(String id, String bmrkID) throws ResourceMissingException, SAXException, IOException
+    {
+        return CreateAi((Element)MakeAi(id), bmrkID);
+    }
+
     private static Benchmark MakeBenchmark(String id) throws ResourceMissingException, SAXException, IOException, InvalidResourceReferenceException, InvalidXmlDataException
     {
         String docFile = Paths.get(baseFolder, _benchmarkDbDir, id + ".xml").toString();
         CheckResource(docFile);        
-        Element root = dBuilder.parse(new File(docFile)).getDocumentElement();
-        _benchmarkSchema.newValidator().validate(new StreamSource(new File(docFile)));
+        Element root = ConfigCache.Load(docFile, _benchmarkSchemaFile).getDocumentElement();
         
         // Repeats
         int repeats = Integer.parseInt(root.getElementsByTagName("Repeats").item(0).getTextContent());
@@ -169,6 +143,18 @@ public class BenchmarkFactory {
         boolean isSymmetric = Boolean.parseBoolean(root.getElementsByTagName("IsSymmetric").item(0).getTextContent());
 
         Benchmark benchmark = new Benchmark(battles, players, maxRounds, isSymmetric, id, playerNames);
+        
+        // Handle seed
+        NodeList seedXml = root.getElementsByTagName("Seed");
+        if (seedXml.getLength() > 0) {
+            benchmark.setSeed(Long.parseLong(seedXml.item(0).getTextContent().trim()));
+        }
+        
+        // Handle move accounting
+        NodeList accountingXml = root.getElementsByTagName("MoveAccounting");
+        if (accountingXml.getLength() > 0) {
+            benchmark.setMoveAccounting(Boolean.parseBoolean(accountingXml.item(0).getTextContent().trim()));
+        }
         return benchmark;
     }
 
@@ -176,8 +162,7 @@ public class BenchmarkFactory {
     {
         String docFile = Paths.get(baseFolder, _battleSetDbDir, id + ".xml").toString();
         CheckResource(docFile);        
-        Element root = dBuilder.parse(new File(docFile)).getDocumentElement();
-        _battleSetSchema.newValidator().validate(new StreamSource(new File(docFile)));
+        Element root = ConfigCache.Load(docFile, _battleSetSchemaFile).getDocumentElement();
 
         NodeList battlesXml = root.getChildNodes();
         List<BattleSettings> battles = new ArrayList<>();
@@ -213,29 +198,84 @@ public class BenchmarkFactory {
             ai = (Element)ResolveAIRef(playerXml.getElementsByTagName("AIRef").item(0));
             playerName = playerXml.getElementsByTagName("AIRef").item(0).getAttributes().getNamedItem("Id").getNodeValue();
         }
+        
+        return new Pair(CreateAi(ai, bmrkID), playerName);
+    }
+
+    /**
+     * Creates the AI described by the given element of an AI config.
+     */
+    private static AI CreateAi(Element ai, String bmrkID)
+    {
+        AI player;
         String name = ai.getNodeName();
         switch (name)
         {
             case "FapMcts":
-                return new Pair(MakeFapMctsPlayer(ai, bmrkID), playerName);
+                player = MakeFapMctsPlayer(ai, bmrkID);
+                break;
             case "Mcts":
-                return new Pair(MakeBasicMctsPlayer(ai, bmrkID), playerName);
+                player = MakeBasicMctsPlayer(ai, bmrkID);
+                break;
             case "MctsHP":
-                return new Pair(MakeMctsHpPlayer(ai, bmrkID), playerName);
+                player = MakeMctsHpPlayer(ai, bmrkID);
+                break;
             case "RQBonusMcts":
-                return new Pair(MakeRQBonusMcts(ai, bmrkID), playerName);
+                player = MakeRQBonusMcts(ai, bmrkID);
+                break;
             case "SigmoidMcts":
-                return new Pair(MakeSigmoidMctsPlayer(ai, bmrkID), playerName);
+                player = MakeSigmoidMctsPlayer(ai, bmrkID);
+                break;
             case "SimpleRegretMcts":
-                return new Pair(MakeSimpleRegretMctsPlayer(ai, bmrkID), playerName);
+                player = MakeSimpleRegretMctsPlayer(ai, bmrkID);
+                break;
             case "UcbTunedMcts":
-                return new Pair(MakeUcbTunedMcts(ai, bmrkID), playerName);
+                player = MakeUcbTunedMcts(ai, bmrkID);
+                break;
             case "VoiMcts":
-                return new Pair(MakeVoiMcts(ai, bmrkID), playerName);
+                player = MakeVoiMcts(ai, bmrkID);
+                break;
             case "WPMcts":
-                return new Pair(MakeWPMcts(ai, bmrkID), playerName);
+                player = MakeWPMcts(ai, bmrkID);
+                break;
             default:
-                throw new IllegalArgumentException(playerXml.getClass().getName());
+                throw new IllegalArgumentException(name);
+        }
+        
+        if (player instanceof BasicMCTS)
+        {
+            ConfigureSearch((BasicMCTS)player, ai);
+        }
+        
+        return player;
+    }
+
+    /**
+     * Applies the optional search settings that are common to all MCTS players.
+     */
+    private static void ConfigureSearch(BasicMCTS player, Element playerXml)
+    {
+        if (playerXml.hasAttribute("SearchThreads"))
+        {
+            int threads = Integer.parseInt(playerXml.getAttribute("SearchThreads"));
+            BasicMCTS.Parallelization mode = "Root".equals(playerXml.getAttribute("Parallelization")) ? BasicMCTS.Parallelization.ROOT : BasicMCTS.Parallelization.TREE;
+            player.setParallelSearch(threads, mode);
+        }
+        if (playerXml.hasAttribute("StateCacheSize"))
+        {
+            player.setStateCacheSize(Integer.parseInt(playerXml.getAttribute("StateCacheSize")));
+        }
+        if (playerXml.hasAttribute("TranspositionTableSize"))
+        {
+            player.setTranspositionTableSize(Integer.parseInt(playerXml.getAttribute("TranspositionTableSize")));
+        }
+        if (playerXml.hasAttribute("TreeReuse"))
+        {
+            player.setTreeReuse(Boolean.parseBoolean(playerXml.getAttribute("TreeReuse")));
+        }
+        if (playerXml.hasAttribute("BinaryMetrics"))
+        {
+            player.setBinaryMetrics(Boolean.parseBoolean(playerXml.getAttribute("BinaryMetrics")));
         }
     }
 
@@ -249,8 +289,7 @@ public class BenchmarkFactory {
     {
         String docFile = Paths.get(baseFolder, _aiDbDir, id + ".xml").toString();
         CheckResource(docFile);
-        Element root = dBuilder.parse(new File(docFile)).getDocumentElement();
-        _aiSchemaSet.newValidator().validate(new StreamSource(new File(docFile)));        
+        Element root = ConfigCache.Load(docFile, _aiDbSchemaFile).getDocumentElement();
         
         Node ai = root.getChildNodes().item(1);
         return ai;
@@ -266,9 +305,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         return new WPMCTS(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, voiBase, poeBase, normalize, "wp_mcts", bmrkID);
@@ -284,9 +324,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         return new FAPMCTS(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, expSeg, expMul, numOfSegments, "fap_mcts", bmrkID);
@@ -299,9 +340,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         return new BasicMCTS(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, "basic_mcts", bmrkID);
@@ -314,9 +356,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         return new MCTSHP(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, "mcts_hp", bmrkID);
@@ -332,9 +375,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         String name = "";
@@ -359,9 +403,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         return new SigmoidMCTS(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, constantK, "sigmoid_mcts", bmrkID);
@@ -376,9 +421,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         if (useEpsilonGreedy) {
@@ -396,9 +442,10 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
 
         return new UCBTunedMCTS(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, "ucb_tuned_mcts", bmrkID);
@@ -411,22 +458,45 @@ public class BenchmarkFactory {
         
         NodeList portfolioXml = playerXml.getElementsByTagName("Script");
         List<DependentUnitScript> portfolio = new ArrayList<>();
+        PathFinding pf = MakePathFinding(playerXml);
         for (int i = 0; i < portfolioXml.getLength(); ++i)
         {
-            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent()));
+            portfolio.add(MakeScript(portfolioXml.item(i).getTextContent(), pf));
         }
         
         return new VOIAwareMCTS(0, maxPlayouts, maxTurns, Integer.MAX_VALUE, new RandomScriptedAI(portfolio), portfolio, "voi_mcts", bmrkID);
     }
 
-    private static DependentUnitScript MakeScript(String scriptName)
+    /**
+     * Creates the pathfinding shared by the scripts of a player. Unless the
+     * PathCacheSize attribute is zero, the paths are cached, so that the
+     * playouts of all the trees of a search reuse them. The scripts are shared
+     * by all the games that the player plays at the same time as well, so the
+     * cache is striped to keep their threads from waiting for one lock.
+     */
+    private static PathFinding MakePathFinding(Element playerXml)
+    {
+        int cacheSize = DEFAULT_PATH_CACHE_SIZE;
+        if (playerXml.hasAttribute("PathCacheSize"))
+        {
+            cacheSize = Integer.parseInt(playerXml.getAttribute("PathCacheSize"));
+        }
+        
+        if (cacheSize > 0)
+        {
+            return new CachingPathFinding(new BucketAStarPathFinding(), cacheSize);
+        }
+        return new BucketAStarPathFinding();
+    }
+
+    private static DependentUnitScript MakeScript(String scriptName, PathFinding pf)
     {
         switch (scriptName)
         {
             case "NOKAV":
-                return new NOKAV(new AStarPathFinding());
+                return new NOKAV(pf);
             case "Kiter":
-                return new Kiter(new AStarPathFinding(), 3);
+                return new Kiter(pf, 3);
             default:
                 throw new IllegalArgumentException(scriptName);
         }
@@ -8,6 +8,9 @@ package benchmarking;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.io.File;
 import org.xml.sax.SAXException;
@@ -17,10 +20,31 @@ import java.util.Random;
 public class BenchmarkRunner {
     private static Random r = new Random();
     
+    /**
+    * Runs a benchmark set. The arguments are either
+    * {@code <set> [threads] [resultsDir|latest]} to run the set in this process,
+    * {@code --coordinate <set> <processes> [threads] [resultsDir|latest]} to run
+    * it with several worker processes (see {@link #Coordinate}), or
+    * {@code --work <set> <resultsDir> [threads]} to join the workers of a
+    * coordinated run, e.g. on another host that shares the results directory.
+    */
     public static void main(String[] args) throws Exception {
-        String benchmarkSet = args.length == 1 ? args[0] : "TestBenchSet";
         BenchmarkRunner br = new BenchmarkRunner();
-        br.Run(benchmarkSet);
+        if (args.length >= 3 && args[0].equals("--coordinate")) {
+            int threads = args.length >= 4 ? Integer.parseInt(args[3]) : 1;
+            String resultsDir = args.length >= 5 ? args[4] : null;
+            br.Coordinate(args[1], Integer.parseInt(args[2]), threads, resultsDir);
+            return;
+        }
+        if (args.length >= 3 && args[0].equals("--work")) {
+            int threads = args.length >= 4 ? Integer.parseInt(args[3]) : 1;
+            br.Work(args[1], args[2], threads);
+            return;
+        }
+        String benchmarkSet = args.length >= 1 ? args[0] : "TestBenchSet";
+        int workers = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+        String resultsDir = args.length >= 3 ? args[2] : null;
+        br.Run(benchmarkSet, workers, resultsDir);
     }
     
     /**
@@ -29,19 +53,45 @@ public class BenchmarkRunner {
     */
     public void Run(String benchmarkSetId) throws Exception
     {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy_MM_dd-HH_mm_ss"); 
-        String resultsDir = Paths.get("results", benchmarkSetId, dtf.format(LocalDateTime.now()) + '_' + (r.nextInt(900000) + 100000)).toString();
-        File f = new File(resultsDir);
-        if (!f.exists() || !f.isDirectory())
-            f.mkdir();
-        try
+        Run(benchmarkSetId, 1);
+    }
+    
+    /**
+    * Tries to create and run given benchmark set.
+    * @param benchmarkSetId File name of the benchmark set.
+    * @param workers The number of games that are played at the same time.
+    * If it is zero or less, the number of available processors is used.
+    */
+    public void Run(String benchmarkSetId, int workers) throws Exception
+    {
+        Run(benchmarkSetId, workers, null);
+    }
+    
+    /**
+    * Tries to create and run given benchmark set, resuming an interrupted run.
+    * Every finished game is recorded in a journal in the results directory
+    * (see {@link GameJournal}), so when a run is resumed in the same directory,
+    * the finished games aren't played again, and the result files are written
+    * anew with the outcomes of all the games.
+    * @param benchmarkSetId File name of the benchmark set.
+    * @param workers The number of games that are played at the same time.
+    * If it is zero or less, the number of available processors is used.
+    * @param resultsDir The results directory of the run that is resumed,
+    * "latest" for the most recent run of the benchmark set, or null to start
+    * a new run.
+    */
+    public void Run(String benchmarkSetId, int workers, String resultsDir) throws Exception
+    {
+        resultsDir = MakeResultsDir(benchmarkSetId, resultsDir);
+        try (GameJournal journal = new GameJournal(resultsDir))
         {
             System.out.println("Benchmarking started...");
 
             List<Benchmark> benchmarkSet = BenchmarkFactory.MakeBenchmarkSet(benchmarkSetId);
             for (Benchmark benchmark : benchmarkSet)
             {
-                benchmark.Run(resultsDir, false, false, false, "");
+                benchmark.setJournal(journal);
+                benchmark.Run(resultsDir, false, false, false, "", workers);
             }
 
             System.out.println("Benchmarking finished...");
@@ -73,4 +123,158 @@ public class BenchmarkRunner {
 
         System.out.println("Terminating...");
     }
+    
+    /**
+    * Runs the given benchmark set with several worker processes. The games
+    * of the set are put in a queue in the results directory (see {@link GameQueue}),
+    * from which the given number of worker processes, started on this host,
+    * take them one by one. More workers can join from other hosts that share
+    * the results directory, by running this class with {@code --work} once the
+    * coordinator started. When the workers are done, the coordinator plays the
+    * games that are left, if any, and writes the results of all the games, in
+    * the same files as a run in a single process.
+    * @param benchmarkSetId File name of the benchmark set.
+    * @param processes The number of worker processes started on this host.
+    * @param workers The number of games that every process plays at the same time.
+    * @param resultsDir The results directory of the run that is resumed,
+    * "latest" for the most recent run of the benchmark set, or null to start
+    * a new run.
+    */
+    public void Coordinate(String benchmarkSetId, int processes, int workers, String resultsDir) throws Exception
+    {
+        resultsDir = MakeResultsDir(benchmarkSetId, resultsDir);
+        
+        // No worker uses the queue yet, so the games taken by the workers of
+        // an interrupted run can be taken again.
+        new GameQueue(resultsDir).Clear();
+        
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            if (!arg.startsWith("-agentlib") && !arg.startsWith("-javaagent"))
+            {
+                command.add(arg);
+            }
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), BenchmarkRunner.class.getName(),
+            "--work", benchmarkSetId, resultsDir, String.valueOf(workers)));
+        
+        System.out.println("Starting " + processes + " workers in " + resultsDir);
+        List<Process> workerProcesses = new ArrayList<>();
+        for (int i = 0; i < processes; i++)
+        {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(new File(resultsDir, "worker_" + i + ".log"));
+            workerProcesses.add(pb.start());
+        }
+        for (int i = 0; i < processes; i++)
+        {
+            int exitCode = workerProcesses.get(i).waitFor();
+            if (exitCode != 0)
+            {
+                System.out.println("[WARNING] Worker " + i + " failed with exit code " + exitCode + ", see worker_" + i + ".log");
+            }
+        }
+        
+        // Play the games that no worker took, and wait for the workers on the
+        // other hosts to finish theirs.
+        Work(benchmarkSetId, resultsDir, workers, null);
+        try (GameJournal journal = new GameJournal(resultsDir))
+        {
+            GameQueue queue = new GameQueue(resultsDir);
+            List<Benchmark> benchmarkSet = BenchmarkFactory.MakeBenchmarkSet(benchmarkSetId);
+            boolean waiting = true;
+            while (waiting)
+            {
+                journal.Reload();
+                waiting = false;
+                for (Benchmark benchmark : benchmarkSet)
+                {
+                    benchmark.setJournal(journal);
+                    waiting = benchmark.Waiting(queue) || waiting;
+                }
+                if (waiting)
+                {
+                    Thread.sleep(GameQueue.HEARTBEAT);
+                }
+            }
+        }
+        
+        // Play the games that the workers abandoned, and write the results.
+        System.out.println("Merging the results");
+        Run(benchmarkSetId, workers, resultsDir);
+    }
+    
+    /**
+    * Plays the games of the given benchmark set as one of the worker processes
+    * of a coordinated run (see {@link #Coordinate}), until no game is left in the
+    * queue. The games are recorded in a journal of this process.
+    * @param benchmarkSetId File name of the benchmark set.
+    * @param resultsDir The results directory of the coordinated run.
+    * @param workers The number of games that are played at the same time.
+    */
+    public void Work(String benchmarkSetId, String resultsDir, int workers) throws Exception
+    {
+        String worker = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+        Work(benchmarkSetId, resultsDir, workers, worker);
+    }
+    
+    private void Work(String benchmarkSetId, String resultsDir, int workers, String worker) throws Exception
+    {
+        try (GameJournal journal = new GameJournal(resultsDir, worker);
+             GameQueue queue = new GameQueue(resultsDir))
+        {
+            List<Benchmark> benchmarkSet = BenchmarkFactory.MakeBenchmarkSet(benchmarkSetId);
+            for (Benchmark benchmark : benchmarkSet)
+            {
+                benchmark.setJournal(journal);
+            }
+            Benchmark.Work(benchmarkSet, resultsDir, queue, workers, worker == null ? "coordinator" : worker);
+        }
+    }
+    
+    /**
+    * Returns the results directory of a run of the given benchmark set,
+    * creating it if needed: the given one, the most recent one if it is
+    * "latest", or a new one if it is null.
+    */
+    private static String MakeResultsDir(String benchmarkSetId, String resultsDir)
+    {
+        if ("latest".equals(resultsDir))
+        {
+            resultsDir = LatestResultsDir(benchmarkSetId);
+        }
+        if (resultsDir == null)
+        {
+            DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy_MM_dd-HH_mm_ss"); 
+            resultsDir = Paths.get("results", benchmarkSetId, dtf.format(LocalDateTime.now()) + '_' + (r.nextInt(900000) + 100000)).toString();
+        }
+        else
+        {
+            System.out.println("Resuming the run in " + resultsDir);
+        }
+        File f = new File(resultsDir);
+        if (!f.exists() || !f.isDirectory())
+            f.mkdirs();
+        return resultsDir;
+    }
+    
+    /**
+    * Returns the results directory of the most recent run of the given
+    * benchmark set, or null if there is none. The names of the directories
+    * start with the time of the run, so the last one in alphabetical order
+    * is the most recent.
+    */
+    private static String LatestResultsDir(String benchmarkSetId)
+    {
+        File[] dirs = Paths.get("results", benchmarkSetId).toFile().listFiles(File::isDirectory);
+        if (dirs == null || dirs.length == 0)
+        {
+            return null;
+        }
+        Arrays.sort(dirs);
+        return dirs[dirs.length - 1].getPath();
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmarking;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Loads the XML configs of the benchmarks, battles and AIs for the factories.
+ *
+ * Every config is parsed only once per process, and the parsed documents are
+ * shared by all the benchmarks that refer to them. The files that were
+ * validated against their schemas are recorded in a file, under a hash of
+ * their contents and of the contents of the schemas, so other processes that
+ * load the same configs, such as the ones running the other parts of a split
+ * benchmark set, don't validate them again. The schemas are only compiled
+ * when a config has to be validated. A config or a schema that changes gets
+ * a new hash, so it is validated again.
+ *
+ * The record is kept in results/validated_configs.txt, unless another file
+ * is given by the benchmarking.configCache system property. An empty value
+ * turns the record off, so that every process validates the configs again.
+ */
+public class ConfigCache {
+    private static final String _recordFile = System.getProperty("benchmarking.configCache", Paths.get("results", "validated_configs.txt").toString());
+
+    private static final Pattern _schemaLocation = Pattern.compile("schemaLocation=\"([^\"]*)\"");
+
+    private static final Map<String, Document> _documents = new HashMap<>();
+    private static final Map<String, Schema> _schemas = new HashMap<>();
+    private static final Map<String, Long> _schemaHashes = new HashMap<>();
+    private static Set<String> _validated;
+
+    private static DocumentBuilder dBuilder;
+
+    /**
+     * Returns the parsed config in the given file, validated against the
+     * given schema. The returned document is shared and mustn't be modified.
+     */
+    public static synchronized Document Load(String docFile, String schemaFile) throws SAXException, IOException
+    {
+        String key = new File(docFile).getCanonicalPath();
+        Document doc = _documents.get(key);
+        if (doc != null)
+        {
+            return doc;
+        }
+
+        byte[] content = Files.readAllBytes(Paths.get(docFile));
+        String hash = Hash(content, schemaFile);
+        if (!Validated().contains(hash))
+        {
+            StreamSource source = new StreamSource(new ByteArrayInputStream(content), docFile);
+            GetSchema(schemaFile).newValidator().validate(source);
+            Record(hash);
+        }
+
+        doc = Builder().parse(new ByteArrayInputStream(content), new File(docFile).toURI().toString());
+        _documents.put(key, doc);
+        return doc;
+    }
+
+    private static DocumentBuilder Builder()
+    {
+        if (dBuilder == null)
+        {
+            try
+            {
+                dBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            }
+            catch (ParserConfigurationException e)
+            {
+                System.out.println("Problem with creating document builder.");
+                System.exit(-6969);
+            }
+        }
+        return dBuilder;
+    }
+
+    private static Schema GetSchema(String schemaFile) throws SAXException
+    {
+        Schema schema = _schemas.get(schemaFile);
+        if (schema == null)
+        {
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            schema = factory.newSchema(new File(schemaFile));
+            _schemas.put(schemaFile, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Hashes the given contents of a config together with the contents of the
+     * schema it is validated against and of the schemas that it includes.
+     * The key also holds the length of the contents.
+     */
+    private static String Hash(byte[] content, String schemaFile) throws IOException
+    {
+        return String.format("%016x %d", Fnv(content, SchemaHash(schemaFile)), content.length);
+    }
+
+    private static long SchemaHash(String schemaFile) throws IOException
+    {
+        Long hash = _schemaHashes.get(schemaFile);
+        if (hash == null)
+        {
+            Path schema = Paths.get(schemaFile);
+            byte[] content = Files.readAllBytes(schema);
+            long h = Fnv(content, 0xcbf29ce484222325L);
+            Matcher m = _schemaLocation.matcher(new String(content, StandardCharsets.UTF_8));
+            while (m.find())
+            {
+                Path included = schema.resolveSibling(m.group(1));
+                if (Files.exists(included))
+                {
+                    h = (h ^ SchemaHash(included.toString())) * 0x100000001b3L;
+                }
+            }
+            hash = h;
+            _schemaHashes.put(schemaFile, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Continues the 64 bit FNV-1a hash h with the given bytes. A cryptographic
+     * hash isn't needed to notice that a config was edited, and initializing
+     * one costs more than loading a config.
+     */
+    private static long Fnv(byte[] bytes, long h)
+    {
+        for (byte b : bytes)
+        {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the hashes of the configs that were already validated, reading
+     * them from the record the first time.
+     */
+    private static Set<String> Validated()
+    {
+        if (_validated == null)
+        {
+            _validated = new HashSet<>();
+            if (!_recordFile.isEmpty() && new File(_recordFile).exists())
+            {
+                try
+                {
+                    for (String line : Files.readAllLines(Paths.get(_recordFile)))
+                    {
+                        _validated.add(line.trim());
+                    }
+                }
+                catch (IOException e)
+                {
+                    System.err.println("Can't read the validated configs: " + e.getMessage());
+                }
+            }
+        }
+        return _validated;
+    }
+
+    /**
+     * Adds the given hash to the record. Every hash is appended as one line,
+     * so processes that share the record only ever add to it.
+     */
+    private static void Record(String hash)
+    {
+        _validated.add(hash);
+        if (_recordFile.isEmpty())
+        {
+            return;
+        }
+
+        File f = new File(_recordFile);
+        if (f.getParentFile() != null)
+        {
+            f.getParentFile().mkdirs();
+        }
+        try (PrintWriter pw = new PrintWriter(new FileWriter(f, true)))
+        {
+            pw.println(hash);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Can't record the validated configs: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmarking;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only record of the finished games of a benchmark set, kept in
+ * its results directory, so that a run that was interrupted can be resumed
+ * without playing the finished games again.
+ *
+ * Every finished game is recorded as one line, which consists of the key of
+ * the game (see {@link Benchmark}) and of its outcome, separated by
+ * semicolons. The line is written to the disk before the game is reported
+ * as finished. A line that was cut short by a crash is ignored when the
+ * journal is read, so its game is simply played again.
+ *
+ * Several processes can record their games in the same results directory,
+ * each in its own file (see {@link GameQueue}). A journal reads the games
+ * recorded in all of them.
+ */
+public class GameJournal implements AutoCloseable {
+    /**
+     * The name of the journal in the results directory.
+     */
+    public static final String FILE_NAME = "journal.txt";
+
+    private final File _dir;
+    private final Map<String, String> _games = new HashMap<>();
+    private final FileOutputStream _output;
+
+    /**
+     * Opens the journal in the given results directory, reading the games
+     * that were already recorded in it.
+     */
+    public GameJournal(String resultsDir) throws IOException
+    {
+        this(resultsDir, null);
+    }
+
+    /**
+     * Opens the journal in the given results directory, reading the games
+     * that were already recorded in it. The games of this process are
+     * recorded in the file of the given worker, or in the main file if the
+     * worker is null.
+     */
+    public GameJournal(String resultsDir, String worker) throws IOException
+    {
+        _dir = new File(resultsDir);
+        File file = new File(resultsDir, worker == null ? FILE_NAME : "journal_" + worker + ".txt");
+        boolean cutShort = false;
+        if (file.length() > 0)
+        {
+            try (RandomAccessFile f = new RandomAccessFile(file, "r"))
+            {
+                f.seek(f.length() - 1);
+                cutShort = f.read() != '\n';
+            }
+        }
+        Reload();
+        _output = new FileOutputStream(file, true);
+        if (cutShort)
+        {
+            // Start the next line on a new line, instead of continuing the one that was cut short.
+            _output.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads the games recorded by all the processes again, including the
+     * ones that other processes recorded since the journal was opened.
+     */
+    public synchronized void Reload() throws IOException
+    {
+        File[] files = _dir.listFiles((dir, name) -> name.startsWith("journal") && name.endsWith(".txt"));
+        if (files == null)
+        {
+            return;
+        }
+        for (File f : files)
+        {
+            for (String line : new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).split("\r?\n"))
+            {
+                int split = line.indexOf('|');
+                if (split != -1 && line.endsWith(";"))
+                {
+                    _games.put(line.substring(0, split), line.substring(split + 1, line.length() - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of games that were recorded before the journal was opened
+     * or since then.
+     */
+    public synchronized int Size()
+    {
+        return _games.size();
+    }
+
+    /**
+     * Returns the recorded outcome of the game with the given key, or null
+     * if the game wasn't finished.
+     */
+    public synchronized String Get(String key)
+    {
+        return _games.get(key);
+    }
+
+    /**
+     * Records that the game with the given key finished with the given
+     * outcome. The key mustn't contain '|', and neither must end with ';'.
+     */
+    public synchronized void Record(String key, String outcome) throws IOException
+    {
+        _output.write((key + "|" + outcome + ";" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        _output.getChannel().force(false);
+        _games.put(key, outcome);
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        _output.close();
+    }
+}
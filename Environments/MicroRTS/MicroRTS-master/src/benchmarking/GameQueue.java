@@ -0,0 +1,201 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmarking;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queue of the games of a benchmark set that is played by several
+ * worker processes, which may run on several hosts that share the results
+ * directory. The queue is a directory in the results directory, and a worker
+ * takes a game by creating a file named after it there. Creating a file is
+ * atomic, so every game is taken by only one worker.
+ *
+ * The worker that plays a game writes a counter in its file periodically, so
+ * a game whose file wasn't changed for a while was abandoned by a worker that
+ * died. Whether a file changed is judged by its content, as seen by the one
+ * who looks at it, so the clocks of the hosts don't have to agree, and the
+ * modification times that a shared file system reports don't matter. The
+ * files of the finished games stay in the queue, so the games
+ * aren't taken again, and their outcomes are in the journals of the workers
+ * (see {@link GameJournal}).
+ */
+public class GameQueue implements AutoCloseable {
+    /**
+     * The name of the queue in the results directory.
+     */
+    public static final String DIR_NAME = "queue";
+
+    /**
+     * How often the files of the games that are being played are written,
+     * and how long a file has to be left unchanged for its game to be
+     * considered abandoned, in milliseconds.
+     */
+    public static final long HEARTBEAT = 10000;
+    public static final long TIMEOUT = 120000;
+
+    private final File _dir;
+    private final Set<File> _playing = new HashSet<>();
+    private Thread _heartbeat = null;
+    private long _beats = 0;
+    private final Map<String, Lease> _seen = new HashMap<>();
+    
+    /**
+     * The content of the file of a game when it was last seen, and when
+     * it was seen to change, by the clock of this process.
+     */
+    private static class Lease
+    {
+        String content;
+        long changedNs;
+    }
+
+    /**
+     * Opens the queue in the given results directory.
+     */
+    public GameQueue(String resultsDir)
+    {
+        _dir = new File(resultsDir, DIR_NAME);
+        _dir.mkdirs();
+    }
+
+    /**
+     * Empties the queue. It must only be done while no worker is using it.
+     */
+    public void Clear()
+    {
+        File[] files = _dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Takes the given game for this worker. Returns false if another worker
+     * already took it.
+     */
+    public boolean Take(String game) throws IOException
+    {
+        File f = new File(_dir, game);
+        if (!f.createNewFile())
+        {
+            return false;
+        }
+        synchronized (_playing)
+        {
+            _playing.add(f);
+            if (_heartbeat == null)
+            {
+                _heartbeat = new Thread(this::Heartbeat, "GameQueue heartbeat");
+                _heartbeat.setDaemon(true);
+                _heartbeat.start();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells that this worker finished the given game.
+     */
+    public void Finish(String game)
+    {
+        synchronized (_playing)
+        {
+            _playing.remove(new File(_dir, game));
+        }
+    }
+
+    /**
+     * Returns whether the given game was taken by a worker that may still be
+     * playing it, i.e. its file changed within the timeout since this queue
+     * first looked at it. A game must be looked at repeatedly, more often
+     * than the timeout, to be found abandoned.
+     */
+    public boolean Taken(String game)
+    {
+        String content;
+        try
+        {
+            content = new String(Files.readAllBytes(new File(_dir, game).toPath()), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+        long now = System.nanoTime();
+        synchronized (_seen)
+        {
+            Lease lease = _seen.get(game);
+            if (lease == null)
+            {
+                lease = new Lease();
+                _seen.put(game, lease);
+            }
+            if (lease.content == null || !lease.content.equals(content))
+            {
+                lease.content = content;
+                lease.changedNs = now;
+            }
+            return now - lease.changedNs < TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        }
+    }
+
+    private void Heartbeat()
+    {
+        try
+        {
+            while (true)
+            {
+                Thread.sleep(HEARTBEAT);
+                synchronized (_playing)
+                {
+                    byte[] beat = String.valueOf(++_beats).getBytes(StandardCharsets.UTF_8);
+                    for (File f : _playing)
+                    {
+                        try
+                        {
+                            Files.write(f.toPath(), beat);
+                        }
+                        catch (IOException e)
+                        {
+                            // Tried again at the next beat; the game is only
+                            // given up if the file stays unchanged.
+                        }
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // closed
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (_playing)
+        {
+            if (_heartbeat != null)
+            {
+                _heartbeat.interrupt();
+                _heartbeat = null;
+            }
+        }
+    }
+}
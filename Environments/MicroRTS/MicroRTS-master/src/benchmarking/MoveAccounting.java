@@ -0,0 +1,191 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmarking;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import util.ThreadUsage;
+
+/**
+ * Measures the moves of the players, i.e. their calls of getAction, by the
+ * counters of the thread that makes them: the CPU time that the thread spent
+ * and the bytes that it allocated, plus those of the threads that worked on
+ * its behalf (see ThreadUsage), e.g. the helper threads of a parallel
+ * search. The garbage collections that happened
+ * during a move are counted as well, since a pause stops the thread while
+ * its wall clock time keeps running.
+ *
+ * This is an alternative to collecting garbage before every frame. The
+ * moves aren't shielded from the collections, but the time and memory of
+ * every move are attributed to the player that made it, and the moves that
+ * were slowed down by a collection can be told apart. It also works when
+ * several games are played at the same time.
+ */
+class MoveAccounting {
+    private static final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> _collectors = new ArrayList<>();
+
+    static {
+        if (_threads.isThreadCpuTimeSupported() && !_threads.isThreadCpuTimeEnabled()) {
+            _threads.setThreadCpuTimeEnabled(true);
+        }
+        if (_threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)_threads;
+            if (threads.isThreadAllocatedMemorySupported() && !threads.isThreadAllocatedMemoryEnabled()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        // Only the collectors that stop the threads are counted. The ones
+        // that report the cycles of a concurrent collector (e.g. "ZGC Cycles")
+        // run next to the threads, and their pauses are reported separately.
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!gc.getName().contains("Cycles") && !gc.getName().contains("Concurrent")) {
+                _collectors.add(gc);
+            }
+        }
+    }
+
+    /**
+     * The counters of the current thread, of its helpers and of the collectors at some moment.
+     */
+    static class Sample {
+        long wallNs;
+        long cpuNs;
+        long allocatedBytes;
+        long gcCount;
+        long gcMs;
+
+        /**
+         * Reads the counters. The counters that the JVM doesn't support are -1.
+         */
+        static Sample Now() {
+            Sample s = new Sample();
+            for (GarbageCollectorMXBean gc : _collectors) {
+                s.gcCount += Math.max(0, gc.getCollectionCount());
+                s.gcMs += Math.max(0, gc.getCollectionTime());
+            }
+            ThreadUsage helpers = ThreadUsage.current();
+            s.cpuNs = _threads.isThreadCpuTimeEnabled() ? _threads.getCurrentThreadCpuTime() : -1;
+            if (s.cpuNs >= 0) s.cpuNs += helpers.getCpuNs();
+            s.allocatedBytes = _threads instanceof com.sun.management.ThreadMXBean
+                ? ((com.sun.management.ThreadMXBean)_threads).getThreadAllocatedBytes(Thread.currentThread().getId())
+                : -1;
+            if (s.allocatedBytes >= 0) s.allocatedBytes += helpers.getAllocatedBytes();
+            s.wallNs = System.nanoTime();
+            return s;
+        }
+    }
+
+    /**
+     * The measurements of one move.
+     */
+    static class Move {
+        /**
+         * The time of the game at which the move was made.
+         */
+        final int time;
+
+        /**
+         * The index of the benchmark player that made the move.
+         */
+        final int player;
+
+        final long wallNs;
+        final long cpuNs;
+        final long allocatedBytes;
+
+        /**
+         * The number of collections that happened during the move, and their
+         * time in milliseconds, which is the resolution of the collectors.
+         */
+        final long gcCount;
+        final long gcMs;
+
+        /**
+         * Creates the measurements of a move that started at the first sample
+         * and ended at the second one. The samples must be from the same thread.
+         */
+        Move(int time, int player, Sample start, Sample end) {
+            this.time = time;
+            this.player = player;
+            wallNs = end.wallNs - start.wallNs;
+            cpuNs = start.cpuNs < 0 ? -1 : end.cpuNs - start.cpuNs;
+            allocatedBytes = start.allocatedBytes < 0 ? -1 : end.allocatedBytes - start.allocatedBytes;
+            gcCount = end.gcCount - start.gcCount;
+            gcMs = end.gcMs - start.gcMs;
+        }
+    }
+
+    /**
+     * The sums of the measurements of the moves of one player.
+     */
+    static class Totals {
+        long moves;
+        long wallNs;
+        long cpuNs;
+        long allocatedBytes;
+        long movesWithGc;
+        long gcMs;
+
+        void add(Move m) {
+            moves++;
+            wallNs += m.wallNs;
+            cpuNs += m.cpuNs;
+            allocatedBytes += m.allocatedBytes;
+            if (m.gcCount > 0) {
+                movesWithGc++;
+                gcMs += m.gcMs;
+            }
+        }
+    }
+
+    /**
+     * Prints the header of the file with the moves.
+     */
+    static void OutputHeader(PrintStream ps) {
+        ps.println("battleName; game; time; player; wallNs; cpuNs; allocatedBytes; gcCount; gcMs;");
+    }
+
+    /**
+     * Prints the given moves of the given game.
+     */
+    static void OutputMoves(PrintStream ps, BattleSettings battle, int game, List<Move> moves) {
+        for (Move m : moves) {
+            ps.println(String.join(";",
+                battle.name,
+                String.valueOf(game),
+                String.valueOf(m.time),
+                String.valueOf(m.player),
+                String.valueOf(m.wallNs),
+                String.valueOf(m.cpuNs),
+                String.valueOf(m.allocatedBytes),
+                String.valueOf(m.gcCount),
+                String.valueOf(m.gcMs)
+            ));
+        }
+    }
+
+    /**
+     * Prints the averages of the moves of a player to the console.
+     */
+    static void OutputTotals(Totals totals, String player) {
+        if (totals.moves == 0) {
+            return;
+        }
+        System.out.println(String.format("%d moves, %.3f ms wall, %.3f ms cpu, %.1f kB allocated per move, %d moves during gc (%d ms) %s",
+            totals.moves,
+            totals.wallNs / 1e6 / totals.moves,
+            totals.cpuNs / 1e6 / totals.moves,
+            totals.allocatedBytes / 1024.0 / totals.moves,
+            totals.movesWithGc,
+            totals.gcMs,
+            player));
+    }
+}
@@ -7,8 +7,6 @@ package gui;
 import gui.PhysicalGameStatePanel;
 import java.awt.Color;
 import java.awt.Dimension;
-import java.util.LinkedList;
-import java.util.List;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
@@ -27,7 +25,6 @@ public class TraceVisualizer extends JPanel implements ListSelectionListener {
 
     JPanel statePanel;
     JList Selector;
-    List<GameState> states = new LinkedList<>();
 
     public static JFrame newWindow(String name,int dx,int dy,Trace t, int subjectID) throws Exception {
         TraceVisualizer ad = new TraceVisualizer(t, dx, dy, subjectID);
@@ -43,10 +40,6 @@ public class TraceVisualizer extends JPanel implements ListSelectionListener {
         current_step = 0;
         trace = t;
 
-        for(TraceEntry te:trace.getEntries()) {
-            states.add(trace.getGameStateAtCycle(te.getTime()));
-        }
-
         setPreferredSize(new Dimension(dx,dy));
         setSize(dx,dy);
 
@@ -94,7 +87,10 @@ public class TraceVisualizer extends JPanel implements ListSelectionListener {
   public void valueChanged(ListSelectionEvent e) {
     int selection = Selector.getSelectedIndex();
 
-    ((PhysicalGameStatePanel)statePanel).setStateDirect(states.get(selection));
+    // the states are built when they are selected, so a long trace (e.g. a
+    // binary one, see Trace.fromBinary) isn't held in memory as states
+    GameState gs = trace.getGameStateAtCycle(trace.getEntries().get(selection).getTime());
+    ((PhysicalGameStatePanel)statePanel).setStateDirect(gs);
     this.repaint();
   }
 
@@ -61,10 +61,16 @@ public class FETracePane extends JPanel {
                     if (returnVal == JFileChooser.APPROVE_OPTION) {
                         File file = fileChooser.getSelectedFile();
                         try {
+                            if (currentTrace != null) {
+                                currentTrace.close();   // the file of a binary trace
+                            }
                             if (file.getAbsolutePath().endsWith(".zip")) {
                                 ZipInputStream zip = new ZipInputStream(new FileInputStream(file));
                                 zip.getNextEntry(); // note: this assumes the zip file contains a single trace!
                                 currentTrace = new Trace(new SAXBuilder().build(zip).getRootElement());
+                            } else if (file.getAbsolutePath().endsWith(".trace")) {
+                                // the binary traces written by the benchmarks, see rts.TraceWriter
+                                currentTrace = Trace.fromBinary(file.getAbsolutePath());
                             } else {
                                 currentTrace = new Trace(new SAXBuilder().build(file.getAbsolutePath()).getRootElement());
                             }
@@ -8,12 +8,15 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -22,7 +25,9 @@ import rts.units.Unit;
 import rts.units.UnitType;
 import rts.units.UnitTypeTable;
 import util.Pair;
+import util.RandomSource;
 import util.XMLWriter;
+import static util.Hashing.mix;
 
 /**
  * A fully-observable game state
@@ -31,12 +36,126 @@ import util.XMLWriter;
 public class GameState {
     public static final boolean REPORT_ILLEGAL_ACTIONS = false;
     
-    static Random r = new Random();         // only used if the action conflict resolution strategy is set to random
+    protected SplittableRandom random = null;  // if set, used instead of the generator of the thread for the random events of this state
     protected int unitCancelationCounter = 0;  // only used if the action conflict resolution strategy is set to alternating
     
     protected int time = 0;
     protected PhysicalGameState pgs;
-    protected HashMap<Unit,UnitActionAssignment> unitActions = new LinkedHashMap<>();
+    protected HashMap<Unit,UnitActionAssignment> unitActions = new ActionMap();
+    
+    /**
+     * The number of move and produce actions that will use each cell, which
+     * is what {@link #free(int, int)} checks besides the units and the terrain.
+     * It is kept up to date by issue, cycle and removeUnit, and rebuilt when
+     * it is needed after the unit actions were modified in any other way.
+     */
+    protected int[] reservations = null;
+    protected int reservationsStamp = -1;   // the modifications of unitActions the reservations correspond to
+    
+    /**
+     * While the state is marked (see {@link #mark()}), the units whose actions
+     * were changed by issue and unissue, and the assignments they had before.
+     */
+    protected boolean marked = false;
+    protected List<Unit> undoUnits = null;
+    protected List<UnitActionAssignment> undoAssignments = null;
+    protected int markedCancelationCounter = 0;
+    
+    /**
+     * An assignment together with the time at which its action completes.
+     */
+    static class Completion implements Comparable<Completion> {
+        int time;
+        final UnitActionAssignment uaa;
+        
+        Completion(UnitActionAssignment a_uaa) {
+            uaa = a_uaa;
+            time = uaa.time + uaa.action.ETA(uaa.unit);
+        }
+        
+        @Override
+        public int compareTo(Completion c) {
+            return Integer.compare(time, c.time);
+        }
+    }
+    
+    /**
+     * The map of unit actions. It counts the modifications done through put,
+     * putAll, remove and clear, so that the reservations can tell whether
+     * they are still up to date.
+     * 
+     * Once the time of the next completion has been asked for, it also keeps
+     * the assignments that are put in it in a priority queue, by the time at
+     * which they complete. Assignments that are removed or replaced are left
+     * in the queue, and dropped when they reach its head.
+     */
+    static class ActionMap extends LinkedHashMap<Unit,UnitActionAssignment> {
+        private static final long serialVersionUID = 1L;
+        
+        int modifications = 0;
+        PriorityQueue<Completion> completions = null;
+        
+        @Override
+        public UnitActionAssignment put(Unit u, UnitActionAssignment uaa) {
+            modifications++;
+            if (completions!=null && uaa!=null) completions.add(new Completion(uaa));
+            return super.put(u, uaa);
+        }
+        
+        @Override
+        public void putAll(Map<? extends Unit, ? extends UnitActionAssignment> m) {
+            modifications++;
+            if (completions!=null) {
+                for(UnitActionAssignment uaa:m.values()) {
+                    if (uaa!=null) completions.add(new Completion(uaa));
+                }
+            }
+            super.putAll(m);
+        }
+        
+        /**
+         * Returns the earliest time at which one of the actions in the map
+         * completes, or -1 if the map is empty.
+         */
+        int nextCompletion() {
+            if (completions==null) {
+                completions = new PriorityQueue<>(Math.max(1, size()));
+                for(UnitActionAssignment uaa:values()) {
+                    completions.add(new Completion(uaa));
+                }
+            }
+            while(!completions.isEmpty()) {
+                Completion c = completions.peek();
+                if (get(c.uaa.unit)!=c.uaa) {
+                    completions.poll();
+                } else {
+                    // assignments are public, so the time is checked in case it was changed
+                    int t = c.uaa.time + c.uaa.action.ETA(c.uaa.unit);
+                    if (t==c.time) return t;
+                    completions.poll();
+                    c.time = t;
+                    completions.add(c);
+                }
+            }
+            if (isEmpty()) return -1;
+            // the assignments were added without going through put or putAll
+            completions = null;
+            return nextCompletion();
+        }
+        
+        @Override
+        public UnitActionAssignment remove(Object u) {
+            modifications++;
+            return super.remove(u);
+        }
+        
+        @Override
+        public void clear() {
+            modifications++;
+            if (completions!=null) completions.clear();
+            super.clear();
+        }
+    }
     protected UnitTypeTable utt;
 
     protected int [][][][] vectorObservation;
@@ -52,6 +171,31 @@ public class GameState {
         utt = a_utt;
     }
         
+    /**
+     * Sets the generator used for the random events of this state (move
+     * conflict resolution and non-deterministic damage), so that they can be
+     * replayed. It is not copied by {@link #clone()}.
+     * @param a_r the generator, or null to use the one of the thread (see
+     * {@link util.RandomSource})
+     */
+    public void setRandom(SplittableRandom a_r) {
+        random = a_r;
+    }
+    
+    /**
+     * @return the generator set by {@link #setRandom(SplittableRandom)}, or null
+     */
+    public SplittableRandom getRandom() {
+        return random;
+    }
+    
+    /**
+     * @return the generator used for the random events of this state
+     */
+    SplittableRandom random() {
+        return random != null ? random : RandomSource.current();
+    }
+    
     /**
      * Current game timestep (frames since beginning)
      * @return
@@ -65,8 +209,10 @@ public class GameState {
      * @param u
      */
     public void removeUnit(Unit u) {
+        boolean valid = reservationsValid();
         pgs.removeUnit(u);
-        unitActions.remove(u);
+        UnitActionAssignment uaa = unitActions.remove(u);
+        reservationsChanged(valid, uaa, null);
     }
     
     /**
@@ -178,8 +324,11 @@ public class GameState {
      */
     public boolean free(int x, int y) {
         if (pgs.getTerrain(x, y)!=PhysicalGameState.TERRAIN_NONE) return false;
-        for(Unit u:pgs.units) {
-            if (u.getX()==x && u.getY()==y) return false;
+        if (pgs.getUnitAt(x, y)!=null) return false;
+        int w = pgs.getWidth();
+        if (x>=0 && x<w && y>=0 && y<pgs.getHeight()) {
+            int[] res = getReservations();
+            if (res!=null) return res[x+y*w]==0;
         }
         for(UnitActionAssignment ua:unitActions.values()) {
             if (ua.action.type==UnitAction.TYPE_MOVE ||
@@ -195,6 +344,63 @@ public class GameState {
     }
     
    
+    /**
+     * Returns the number of move and produce actions that will use each cell,
+     * rebuilding it if the unit actions were modified since it was last updated.
+     * Returns null if the unit actions are not kept in an {@link ActionMap}.
+     */
+    private int[] getReservations() {
+        if (!(unitActions instanceof ActionMap)) return null;
+        if (!reservationsValid()) {
+            int w = pgs.getWidth();
+            int h = pgs.getHeight();
+            int[] res = (reservations!=null && reservations.length==w*h ? reservations : new int[w*h]);
+            Arrays.fill(res, 0);
+            for(UnitActionAssignment uaa:unitActions.values()) {
+                reserve(res, uaa, 1);
+            }
+            reservations = res;
+            reservationsStamp = ((ActionMap)unitActions).modifications;
+        }
+        return reservations;
+    }
+    
+    private boolean reservationsValid() {
+        return reservations!=null && unitActions instanceof ActionMap &&
+               reservationsStamp==((ActionMap)unitActions).modifications &&
+               reservations.length==pgs.getWidth()*pgs.getHeight();
+    }
+    
+    /**
+     * Updates the reservations after unitActions was modified by this class,
+     * if they were up to date before the modification.
+     */
+    private void reservationsChanged(boolean wasValid, UnitActionAssignment removed, UnitActionAssignment added) {
+        if (!wasValid) return;
+        if (removed!=null) reserve(reservations, removed, -1);
+        if (added!=null) reserve(reservations, added, 1);
+        reservationsStamp = ((ActionMap)unitActions).modifications;
+    }
+    
+    /**
+     * Adds delta to the count of the cell that the given action will use, if any.
+     */
+    private void reserve(int[] res, UnitActionAssignment uaa, int delta) {
+        if (uaa.action.type!=UnitAction.TYPE_MOVE &&
+            uaa.action.type!=UnitAction.TYPE_PRODUCE) return;
+        int x = uaa.unit.getX();
+        int y = uaa.unit.getY();
+        switch(uaa.action.getDirection()) {
+            case UnitAction.DIRECTION_UP: y--; break;
+            case UnitAction.DIRECTION_RIGHT: x++; break;
+            case UnitAction.DIRECTION_DOWN: y++; break;
+            case UnitAction.DIRECTION_LEFT: x--; break;
+            default: return;
+        }
+        int w = pgs.getWidth();
+        if (x>=0 && x<w && y>=0 && y<pgs.getHeight()) res[x+y*w] += delta;
+    }
+    
     /**
      * Returns a boolean array with true if there is no unit in 
      * the specified position and no unit is executing an action that will use that position
@@ -263,7 +469,7 @@ public class GameState {
                                     cancel_old = cancel_new = true;
                                     break;
                                 case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM:
-                                    if (r.nextInt(2)==0) cancel_new = true;
+                                    if (random().nextInt(2)==0) cancel_new = true;
                                                     else cancel_old = true;
                                     break;
                                 case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING:
@@ -276,7 +482,13 @@ public class GameState {
                             int duration2 = p.m_b.ETA(p.m_a);
                             if (cancel_old) {
 //                                System.out.println("Old action canceled: " + uaa.unit.getID() + ", " + uaa.action);
-                                uaa.action = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
+                                // The assignment is replaced rather than modified, since states
+                                // created with cloneIssue share their assignments.
+                                boolean valid = reservationsValid();
+                                UnitActionAssignment cancelled = new UnitActionAssignment(uaa.unit, new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2)), uaa.time);
+                                if (marked) recordUndo(uaa.unit, uaa);
+                                unitActions.put(uaa.unit, cancelled);
+                                reservationsChanged(valid, uaa, cancelled);
                             }
                             if (cancel_new) {
 //                                System.out.println("New action canceled: " + p.m_a.getID() + ", " + p.m_b);
@@ -306,7 +518,10 @@ public class GameState {
                 }
                 
                 UnitActionAssignment uaa = new UnitActionAssignment(p.m_a, p.m_b, time);
-                unitActions.put(p.m_a,uaa);
+                boolean valid = reservationsValid();
+                UnitActionAssignment old = unitActions.put(p.m_a,uaa);
+                if (marked) recordUndo(p.m_a, old);
+                reservationsChanged(valid, old, uaa);
                 if (p.m_b.type!=UnitAction.TYPE_NONE) returnValue = true;
 //                System.out.println("Issuing action " + p.m_b + " to " + p.m_a);                
 //            }
@@ -315,6 +530,67 @@ public class GameState {
     }
     
     
+    /**
+     * Removes the action that was issued to a unit, so that a state can be
+     * reused to try other actions without cloning it again. Changes that the
+     * issue made to the actions of other units because of move conflicts are
+     * not undone.
+     * @param u
+     */
+    public void unissue(Unit u) {
+        boolean valid = reservationsValid();
+        UnitActionAssignment uaa = unitActions.remove(u);
+        if (marked && uaa!=null) recordUndo(u, uaa);
+        reservationsChanged(valid, uaa, null);
+    }
+    
+    
+    /**
+     * Starts recording the changes that issue and unissue make to the unit
+     * actions, so that {@link #rollback()} can undo them. Unlike unissue, this
+     * also undoes the cancellations of other actions because of move
+     * conflicts, and restores the counter of the alternating conflict
+     * resolution strategy, so an AI can try its actions in the state itself
+     * instead of in a clone. Random numbers drawn to resolve conflicts are not
+     * given back. Marks cannot be nested.
+     */
+    public void mark() {
+        if (undoUnits==null) {
+            undoUnits = new ArrayList<>();
+            undoAssignments = new ArrayList<>();
+        }
+        undoUnits.clear();
+        undoAssignments.clear();
+        markedCancelationCounter = unitCancelationCounter;
+        marked = true;
+    }
+    
+    
+    /**
+     * Restores the unit actions as they were when {@link #mark()} was called,
+     * and stops recording.
+     */
+    public void rollback() {
+        for(int i = undoUnits.size()-1;i>=0;i--) {
+            Unit u = undoUnits.get(i);
+            UnitActionAssignment old = undoAssignments.get(i);
+            boolean valid = reservationsValid();
+            UnitActionAssignment current = (old==null ? unitActions.remove(u) : unitActions.put(u, old));
+            reservationsChanged(valid, current, old);
+        }
+        undoUnits.clear();
+        undoAssignments.clear();
+        unitCancelationCounter = markedCancelationCounter;
+        marked = false;
+    }
+    
+    
+    private void recordUndo(Unit u, UnitActionAssignment old) {
+        undoUnits.add(u);
+        undoAssignments.add(old);
+    }
+    
+    
     /**
      * Issues a player action, with additional checks for validity. This function is slower
      * than "issue", and should not be used internally by any AI. It is used externally in the main loop
@@ -341,7 +617,7 @@ public class GameState {
             }
             
             // get the unit that corresponds to that action (since the state might have been cloned):
-            if (pgs.units.indexOf(p.m_a)==-1) {
+            if (pgs.getUnit(p.m_a.getID())!=p.m_a) {
                 boolean found = false;
                 for(Unit u:pgs.units) {
                     if (u.getClass()==p.m_a.getClass() &&
@@ -503,6 +779,40 @@ public class GameState {
     }
         
        
+    /**
+     * Returns a Zobrist-style hash of this state: the xor of independent 64 bit
+     * keys of the time, of the resources of every player, of every unit (ID,
+     * type, owner, position, hit points and carried resources) and of every
+     * action being executed (unit, action and the time it was issued). Equal
+     * states have equal hashes. The hash is computed from scratch on every
+     * call, in time linear in the number of units and actions, so callers
+     * that need it more than once should keep it.
+     * @return
+     */
+    public long zobristHash() {
+        long h = mix(0x5851f42d4c957f2dL + time);
+        for(Player p:pgs.players) {
+            h ^= mix(mix(0x14057b7ef767814fL + p.ID) + p.getResources());
+        }
+        for(Unit u:pgs.units) {
+            long k = mix(0x2545f4914f6cdd1dL + u.getID());
+            k = mix(k + u.getType().ID*31L + u.getPlayer());
+            k = mix(k + u.getX() + u.getY()*(long)pgs.width);
+            k = mix(k + u.getHitPoints()*65537L + u.getResources());
+            h ^= k;
+        }
+        for(UnitActionAssignment uaa:unitActions.values()) {
+            UnitAction a = uaa.action;
+            long k = mix(0x9e3779b97f4a7c15L + uaa.unit.getID());
+            k = mix(k + a.type*31L + a.parameter);
+            k = mix(k + a.x + a.y*(long)pgs.width);
+            k = mix(k + (a.unitType==null ? -1 : a.unitType.ID)*65537L + uaa.time);
+            h ^= k;
+        }
+        return h;
+    }
+    
+    
     /**
      * Returns the time the next unit action will complete, or current time 
      * if a player can act 
@@ -539,7 +849,9 @@ public class GameState {
                 
         // execute the actions:
         for(UnitActionAssignment uaa:readyToExecute) {
+            boolean valid = reservationsValid();
             unitActions.remove(uaa.unit);
+            reservationsChanged(valid, uaa, null);
             
 //            System.out.println("Executing action for " + u + " issued at time " + uaa.time + " with duration " + uaa.action.ETA(uaa.unit));
             
@@ -550,6 +862,28 @@ public class GameState {
     }
     
     
+    /**
+     * Runs game cycles until one in which an action completes, or until the
+     * time reaches the limit, whichever comes first. The cycles in which no
+     * action completes don't change anything but the time, so they are
+     * skipped instead of being run one by one. The result is the same as
+     * calling {@link #cycle()} while all the units have actions, the game
+     * isn't over and the time is lower than the limit. At least one cycle is
+     * always run.
+     * @param limit
+     * @return whether the game was over
+     */
+    public boolean fastForward(int limit) {
+        if (unitActions instanceof ActionMap && !gameover()) {
+            int next = ((ActionMap)unitActions).nextCompletion();
+            if (next!=-1) {
+                time = Math.max(time, Math.min(next, limit) - 1);
+            }
+        }
+        return cycle();
+    }
+    
+    
     /**
      * Forces the execution of all assigned actions
      */
@@ -572,15 +906,15 @@ public class GameState {
         gs.unitCancelationCounter = unitCancelationCounter;
         for(UnitActionAssignment uaa:unitActions.values()) {
             Unit u = uaa.unit;
-            int idx = pgs.getUnits().indexOf(u);
-            if (idx==-1) {
+            // the units are looked up by ID, since the clone has the same IDs (indexOf would make this quadratic)
+            if (pgs.getUnit(u.getID())!=u) {
                 System.out.println("Problematic game state:");
                 System.out.println(this);
                 System.out.println("Problematic action:");
                 System.out.println(uaa);
                 throw new Error("Inconsistent game state during cloning...");
             } else {
-                Unit u2 = gs.pgs.getUnits().get(idx);
+                Unit u2 = gs.pgs.getUnit(u.getID());
                 gs.unitActions.put(u2,new UnitActionAssignment(u2, uaa.action, uaa.time));
             }                
         }
@@ -681,8 +1015,7 @@ public class GameState {
         List<Unit> alreadyUsed = new LinkedList<>();
         for(UnitActionAssignment uaa:unitActions.values()) {
             Unit u = uaa.unit;
-            int idx = pgs.getUnits().indexOf(u);
-            if (idx==-1) {
+            if (pgs.getUnit(u.getID())!=u) {
                 System.err.println("integrityCheck: unit does not exist!");
                 return false;
             }            
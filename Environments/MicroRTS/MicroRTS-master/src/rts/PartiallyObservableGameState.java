@@ -15,12 +15,27 @@ public class PartiallyObservableGameState extends GameState {
 	 */
 	protected int player;   // the observer player
 
+	/**
+	 * The cells seen by the units of the player. It is updated when the
+	 * units of the player change, see {@link VisibilityMap#stale(GameState)}.
+	 */
+	private VisibilityMap visibility;
+
     /** 
      * Creates a partially observable game state, from the point of view of 'player':
      * @param gs a fully-observable game state
      * @param a_player
      */
     public PartiallyObservableGameState(GameState gs, int a_player) {
+		this(gs, a_player, null);
+    }
+
+    /**
+     * Creates a partially observable game state, from the point of view of
+     * 'player', starting from the visibility of another state with the
+     * same units, if it is given.
+     */
+    private PartiallyObservableGameState(GameState gs, int a_player, VisibilityMap a_visibility) {
 		super(gs.getPhysicalGameState().cloneKeepingUnits(), gs.getUnitTypeTable());
 		unitCancelationCounter = gs.unitCancelationCounter;
 		time = gs.time;
@@ -29,6 +44,8 @@ public class PartiallyObservableGameState extends GameState {
 
 		unitActions.putAll(gs.unitActions);
 
+		visibility = a_visibility != null ? a_visibility.share() : new VisibilityMap(pgs.getWidth(), pgs.getHeight());
+
 		List<Unit> toDelete = new LinkedList<>();
 		for (Unit u : pgs.getUnits()) {
 			if (u.getPlayer() != player) {
@@ -46,6 +63,20 @@ public class PartiallyObservableGameState extends GameState {
      * @see rts.GameState#observable(int, int)
      */
     public boolean observable(int x, int y) {
+		if (x < 0 || x >= visibility.width || y < 0 || y >= visibility.height) {
+			return observableFromOutside(x, y);
+		}
+		if (visibility.stale(this)) {
+			visibility.update(this, player);
+		}
+		return visibility.visible(x, y);
+    }
+
+    /**
+     * Returns whether a position outside of the map is within view of the
+     * player, by checking the distance to every unit of the player.
+     */
+    private boolean observableFromOutside(int x, int y) {
 		for (Unit u : pgs.getUnits()) {
 			if (u.getPlayer() == player) {
 				double d = Math.sqrt((u.getX() - x) * (u.getX() - x) + (u.getY() - y) * (u.getY() - y));
@@ -57,10 +88,19 @@ public class PartiallyObservableGameState extends GameState {
         return false;
     }
 
+    /* (non-Javadoc)
+     * @see rts.GameState#forceExecuteAllActions()
+     */
+    public void forceExecuteAllActions() {
+        super.forceExecuteAllActions();
+        // the units moved without a cycle
+        visibility.time = -1;
+    }
+
     /* (non-Javadoc)
      * @see rts.GameState#clone()
      */
     public PartiallyObservableGameState clone() {
-        return new PartiallyObservableGameState(super.clone(), player);
+        return new PartiallyObservableGameState(super.clone(), player, visibility);
     }
 }
@@ -10,6 +10,7 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import util.XMLWriter;
@@ -40,7 +41,73 @@ public class PhysicalGameState {
     int height = 8;
     int terrain[];
     List<Player> players = new ArrayList<>();
-    List<Unit> units = new LinkedList<>();
+    UnitList units = new UnitList();
+
+    /**
+     * Set if the units are shared with another map (see
+     * {@link #cloneKeepingUnits()}), which might move them without this map
+     * knowing about it. The units are then not indexed by position.
+     */
+    boolean sharedUnits = false;
+
+    /**
+     * The ID that the next unit produced in this map gets, unless a unit
+     * with that ID or a larger one is already in the map. It is copied by
+     * the clones, so a game and its simulations number their units by
+     * themselves, independently of the other games.
+     */
+    long nextUnitID = 0;
+
+    /**
+     * The index of the units by ID and by position. Built when it is first
+     * needed and rebuilt after the list of units is structurally modified.
+     */
+    UnitIndex index = null;
+
+    /**
+     * The list of units. It tells whether it was modified since the index
+     * was built.
+     */
+    static class UnitList extends ArrayList<Unit> {
+        private static final long serialVersionUID = 1L;
+
+        UnitList() {
+        }
+
+        UnitList(int capacity) {
+            super(capacity);
+        }
+
+        int modifications() {
+            return modCount;
+        }
+    }
+
+    /**
+     * Maps the IDs and the positions of the units of the map to the units.
+     * If several units have the same ID or position, the first one in the
+     * list of units is kept, as a linear search would find it first.
+     */
+    static class UnitIndex {
+        final int modifications;
+        final int width;
+        final HashMap<Long, Unit> byID;
+        final Unit[] byPosition;    // null if the units are shared with another map
+
+        UnitIndex(PhysicalGameState pgs) {
+            modifications = pgs.units.modifications();
+            width = pgs.width;
+            byID = new HashMap<>(pgs.units.size() * 2);
+            byPosition = pgs.sharedUnits ? null : new Unit[pgs.width * pgs.height];
+            for (Unit u : pgs.units) {
+                byID.putIfAbsent(u.getID(), u);
+                if (byPosition != null && pgs.inside(u.getX(), u.getY())
+                        && byPosition[u.getX() + u.getY() * width] == null) {
+                    byPosition[u.getX() + u.getY() * width] = u;
+                }
+            }
+        }
+    }
 
     /**
      * Constructs the game state map from a XML
@@ -156,6 +223,16 @@ public class PhysicalGameState {
         terrain = t;
     }
 
+    /**
+     * Returns the whole terrain. The array is shared with the clones of this
+     * state, so it must not be modified.
+     *
+     * @return
+     */
+    public int[] getTerrain() {
+        return terrain;
+    }
+
     /**
      * Adds a player
      *
@@ -168,6 +245,23 @@ public class PhysicalGameState {
         players.add(p);
     }
 
+    /**
+     * Returns a new unit ID, larger than the IDs of all the units in the map
+     * and than those returned before by this map or the map it was cloned from.
+     *
+     * @return
+     */
+    public long newUnitID() {
+        long id = nextUnitID;
+        for (Unit u : units) {
+            if (u.getID() >= id) {
+                id = u.getID() + 1;
+            }
+        }
+        nextUnitID = id + 1;
+        return id;
+    }
+
     /**
      * Adds a new {@link Unit} to the map if its position is free
      *
@@ -176,15 +270,68 @@ public class PhysicalGameState {
      * occupied
      */
     public void addUnit(Unit newUnit) throws IllegalArgumentException {
-        for (Unit existingUnit : units) {
-            if (newUnit.getX() == existingUnit.getX() && newUnit.getY() == existingUnit.getY()) {
-                throw new IllegalArgumentException(
-                        "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
-            }
+        if (getUnitAt(newUnit.getX(), newUnit.getY()) != null) {
+            throw new IllegalArgumentException(
+                    "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
         }
         units.add(newUnit);
     }
 
+    /**
+     * Moves a unit of the map to the given position, keeping the index of
+     * the units by position up to date. Units of the map should be moved
+     * with this method rather than with {@link Unit#setX(int)} and
+     * {@link Unit#setY(int)}.
+     *
+     * @param u
+     * @param x
+     * @param y
+     */
+    public void moveUnit(Unit u, int x, int y) {
+        int oldX = u.getX();
+        int oldY = u.getY();
+        u.setX(x);
+        u.setY(y);
+        UnitIndex idx = index;
+        if (idx == null || idx.byPosition == null) {
+            return;
+        }
+        if (idx.modifications != units.modifications() || idx.width != width
+                || idx.byPosition.length != width * height) {
+            index = null;
+            return;
+        }
+        if (inside(oldX, oldY) && idx.byPosition[oldX + oldY * width] == u) {
+            idx.byPosition[oldX + oldY * width] = null;
+        }
+        if (inside(x, y)) {
+            if (idx.byPosition[x + y * width] == null) {
+                idx.byPosition[x + y * width] = u;
+            } else {
+                // Two units in the same cell: let a rebuilt index decide.
+                index = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the units, rebuilding it if the list of units or
+     * the dimensions of the map have changed since it was built.
+     */
+    private UnitIndex getIndex() {
+        UnitIndex idx = index;
+        if (idx == null || idx.modifications != units.modifications() || idx.width != width
+                || (idx.byPosition != null && idx.byPosition.length != width * height)) {
+            idx = new UnitIndex(this);
+            index = idx;
+        }
+        return idx;
+    }
+
+    private boolean inside(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
     /**
      * Removes a unit from the map
      *
@@ -229,12 +376,7 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnit(long ID) {
-        for (Unit u : units) {
-            if (u.getID() == ID) {
-                return u;
-            }
-        }
-        return null;
+        return getIndex().byID.get(ID);
     }
 
     /**
@@ -246,12 +388,22 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnitAt(int x, int y) {
-        for (Unit u : units) {
-            if (u.getX() == x && u.getY() == y) {
-                return u;
+        UnitIndex idx = getIndex();
+        if (idx.byPosition == null || !inside(x, y)) {
+            for (Unit u : units) {
+                if (u.getX() == x && u.getY() == y) {
+                    return u;
+                }
             }
+            return null;
+        }
+        Unit u = idx.byPosition[x + y * width];
+        if (u != null && (u.getX() != x || u.getY() != y)) {
+            // The unit was moved without moveUnit, so the index is stale.
+            index = null;
+            return getUnitAt(x, y);
         }
-        return null;
+        return u;
     }
 
     /**
@@ -379,9 +531,11 @@ public class PhysicalGameState {
         for (Player p : players) {
             pgs.players.add(p.clone());
         }
+        pgs.units.ensureCapacity(units.size());
         for (Unit u : units) {
             pgs.units.add(u.clone());
         }
+        pgs.nextUnitID = nextUnitID;
         return pgs;
     }
 
@@ -395,6 +549,8 @@ public class PhysicalGameState {
         PhysicalGameState pgs = new PhysicalGameState(width, height, terrain);  // The terrain is shared amongst all instances, since it never changes
         pgs.players.addAll(players);
         pgs.units.addAll(units);
+        pgs.sharedUnits = true;
+        pgs.nextUnitID = nextUnitID;
         return pgs;
     }
 
@@ -413,6 +569,7 @@ public class PhysicalGameState {
         for (Unit u : units) {
             pgs.units.add(u.clone());
         }
+        pgs.nextUnitID = nextUnitID;
         return pgs;
     }
 
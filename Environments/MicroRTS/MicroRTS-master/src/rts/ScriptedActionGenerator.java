@@ -6,28 +6,30 @@
 package rts;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import rts.units.Unit;
 import util.Pair;
+import util.RandomSource;
 import ai.portfolio.portfoliogreedysearch.DependentUnitScript;
 import ai.portfolio.portfoliogreedysearch.UnitScript;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import ai.abstraction.UpdateableAbstractAction;
 import ai.abstraction.UpdateableAttackOnce;
 import ai.abstraction.HitAndRun;
-import java.util.Collections;
 import rts.UnitAction;
-import java.util.stream.IntStream;
-import java.util.stream.Collectors;
+import static util.Hashing.mix;
 
 /**
  * Action generator that offers actions from a given portfolio of scripts.
  */
 public class ScriptedActionGenerator {
-    static Random r = new Random();
     
     /**
      * Portfolio of scripts that this generator can choose from.
@@ -46,10 +48,18 @@ public class ScriptedActionGenerator {
     
     /**
      * A map used to convert player actions returned by the generator to
-     * maps of updateable abstract actions.
+     * maps of updateable abstract actions. The returned actions themselves
+     * are the keys, so it is looked up by identity.
      */
     private Map<PlayerAction, Map<Long, UpdateableAbstractAction>> abstractActions;
     
+    /**
+     * The returned player actions together with their updateable abstract
+     * actions, used to skip the duplicates without comparing them with all
+     * the returned actions.
+     */
+    private Set<JointAction> returnedActions;
+    
     /**
      * The last returned player action.
      */
@@ -71,10 +81,10 @@ public class ScriptedActionGenerator {
     List<Unit> assignableUnits;
     
     /**
-     * A list that holds the current choice of scripts for all the units
-     * that can have actions assigned.
+     * Holds the current choice of scripts for all the units that can have
+     * actions assigned.
      */
-    //List<Integer> scriptIndices;
+    int[] scriptIndices;
     
     /**
      * Damage assigned to enemy units by this generator.
@@ -93,11 +103,142 @@ public class ScriptedActionGenerator {
     int player;
     
     /**
-     * Every number in this list represents a configuration of scripts to be
-     * assigned to units. Used to randomize the order of actions produced by
-     * this generator.
+     * The result of running the script chosen for a unit, after the scripts
+     * chosen for the preceding units were run. Since scripts are
+     * deterministic, it only depends on the scripts chosen for the unit and
+     * the preceding units, so the steps form a tree in which each step is
+     * reached from the previous one by the index of its script. Different
+     * choices that start with the same scripts reuse the same steps.
+     */
+    static class Step {
+        UnitAction action;
+        ResourceUsage resourceUsage;
+        UpdateableAbstractAction abstractAction;
+        Pair<Unit, Integer> assignedDamage;
+        boolean abstractActionUsed = false;
+        boolean consistent;
+        final Step[] next;
+        
+        Step(int nScripts) {
+            next = new Step[nScripts];
+        }
+    }
+    
+    /**
+     * The unit actions and the updateable abstract actions of a player action,
+     * sorted by unit ID so that two of them can be compared regardless of the
+     * order in which the units were added. The hash is a sum over the units,
+     * so it doesn't depend on that order either.
+     */
+    static final class JointAction {
+        final long[] units;
+        final UnitAction[] actions;
+        final UpdateableAbstractAction[] abstractActions;
+        final int hash;
+        
+        JointAction(PlayerAction pa, Map<Long, UpdateableAbstractAction> uaas) {
+            List<Pair<Unit, UnitAction>> sorted = new ArrayList<>(pa.getActions());
+            sorted.sort((p1, p2) -> Long.compare(p1.m_a.getID(), p2.m_a.getID()));
+            int n = sorted.size();
+            units = new long[n];
+            actions = new UnitAction[n];
+            abstractActions = new UpdateableAbstractAction[n];
+            long h = n;
+            for (int i = 0; i < n; i++) {
+                units[i] = sorted.get(i).m_a.getID();
+                actions[i] = sorted.get(i).m_b;
+                abstractActions[i] = uaas.get(units[i]);
+                long uh = actions[i].hashCode() * 31L + (abstractActions[i] == null ? 0 : abstractActions[i].hashCode());
+                h += mix(mix(units[i]) + uh);
+            }
+            hash = (int)(h ^ (h >>> 32));
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof JointAction)) return false;
+            JointAction a = (JointAction)o;
+            return hash == a.hash && Arrays.equals(units, a.units) &&
+                   Arrays.equals(actions, a.actions) && Arrays.equals(abstractActions, a.abstractActions);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+    
+    /**
+     * The largest number of steps that are kept. When there are more, they
+     * are all forgotten.
+     */
+    static final int MAX_CACHED_STEPS = 100000;
+    
+    /**
+     * The step before the first unit.
+     */
+    Step rootStep;
+    
+    int cachedSteps = 0;
+    
+    /**
+     * The steps of the choice that is being evaluated.
+     */
+    Step[] path;
+    
+    /**
+     * A clone of the game state in which the actions of the steps in 'applied'
+     * are issued. Instead of cloning the game state for every choice, actions
+     * are issued and unissued as needed.
+     */
+    GameState scratch;
+    Step[] applied;
+    int appliedDepth = 0;
+    
+    /**
+     * The largest number of configurations of scripts that are enumerated.
+     */
+    static final long MAX_CHOICES = 1L << 62;
+    
+    /**
+     * Every number lower than this one represents a configuration of scripts
+     * to be assigned to units. They are visited in a random order given by
+     * the permutation below, one at a time, so that they don't have to be
+     * stored.
+     */
+    long choiceCount;
+    
+    /**
+     * The number of units whose scripts are given by the digits of a choice
+     * in base scripts.size(). If there are so many units that the number of
+     * configurations would be larger than MAX_CHOICES, the scripts of the
+     * remaining units are derived from a hash of the choice, so every choice
+     * still gives a different configuration.
+     */
+    int enumeratedUnits;
+    
+    /**
+     * The number of choices that haven't been visited yet.
+     */
+    long remainingChoices;
+    
+    /**
+     * The permutation of the choices is a linear congruential generator
+     * with full period over the smallest power of two that isn't lower than
+     * choiceCount, followed by a bijective mixing of its state. The states
+     * whose mixed values aren't lower than choiceCount are skipped.
+     */
+    long choiceMask;
+    long lcgMultiplier;
+    long lcgIncrement;
+    long lcgState;
+    long mixMultiplier;
+    int mixShift;
+    
+    /**
+     * Used to derive the scripts of the units that aren't enumerated.
      */
-    List<Integer> choices;
+    long hashSeed;
     
     public long getGenerated() {
         return generated;
@@ -130,7 +271,8 @@ public class ScriptedActionGenerator {
         
         player = pID;
         assignableUnits = new ArrayList<>();
-        abstractActions = new HashMap<>();
+        abstractActions = new IdentityHashMap<>();
+        returnedActions = new HashSet<>();
         assignedDamage = new HashMap<>();
         
         // Initialize the assignableUnits, scriptIndices and assignedDamage variables.
@@ -145,13 +287,14 @@ public class ScriptedActionGenerator {
             }
 	}
         
-        // Create a list of integers with one number for every sequence of scripts
-        // that this generator can generate, then shuffle it to ensure a random
-        // ordering of actions.        
-        choices = IntStream.rangeClosed(
-                0, (int)Math.pow(scripts.size(), assignableUnits.size()) - 1
-        ).boxed().collect(Collectors.toList());
-	Collections.shuffle(choices);
+        rootStep = new Step(scripts.size());
+        path = new Step[assignableUnits.size()];
+        applied = new Step[assignableUnits.size()];
+        
+        // Set up a random permutation of the numbers that represent the
+        // sequences of scripts that this generator can generate, to ensure
+        // a random ordering of actions.
+        initializeChoices();
         
         // If there are no units that can be assigned actions, something
         // went wrong.
@@ -173,7 +316,6 @@ public class ScriptedActionGenerator {
         // While there are more actions available, look for the next consistent
         // action assignment.
         while(moreActions) {
-            GameState gsc = gameState.clone();
             clearAssignedDamage();
             boolean consistent = true;
             PlayerAction pa = new PlayerAction();
@@ -184,66 +326,47 @@ public class ScriptedActionGenerator {
             if (i == 0)
                 throw new Exception("Move generator created with no units that can execute actions!");
             
-            // Go through all the units.
+            // Go through all the units, reusing the steps that were already
+            // computed for the same scripts of the preceding units.
+            Step step = rootStep;
+            int depth = 0;
             while (i > 0) {
                 --i;
                 Unit u = assignableUnits.get(i);
-                UnitScript us = scripts.get(getScriptIndex(i)).instantiate(u, gsc, assignedDamage);
-                UnitAction ua = null;
-                boolean scriptActionFound = false;
-
-                if (us != null) {
-                    ua = us.getAction(u, gsc);
-                    scriptActionFound = true;
-                }
-
-                // If the chosen unit script didn't generate a unit action,
-                // assign the unit an action of type None.
-                if (ua == null) {
-                    scriptActionFound = false;
-                    ua = new UnitAction(UnitAction.TYPE_NONE, 1);
-                }
-                // Otherwise add the damage assigned by the generated action to
-                // the assignedDamage map.
-                else {
-                    Pair<Unit, Integer> newAssignedDamage = ((UpdateableAbstractAction)us.getAbstractAction()).getAssignedDamage();
-                    if (newAssignedDamage != null) {
-                        assignedDamage.put(newAssignedDamage.m_a.getID(), assignedDamage.get(newAssignedDamage.m_a.getID()) + newAssignedDamage.m_b);
-                    }
-                }
-
-                ResourceUsage r2 = ua.resourceUsage(u, gsc.getPhysicalGameState());
-
-                // Check for consistency.
-                if (pa.getResourceUsage().consistentWith(r2, gameState)) {
-                    pa.getResourceUsage().merge(r2);
-                    pa.addUnitAction(u, ua);
-
-                    PlayerAction auxiliaryAction = new PlayerAction();
-                    auxiliaryAction.addUnitAction(u, ua);
-                    gsc.issue(auxiliaryAction);
-
-                    if (scriptActionFound) {
-                        uaas.put(u.getID(), (UpdateableAbstractAction)us.getAbstractAction());
-                    }
+                int script = getScriptIndex(i);
+                Step next = step.next[script];
+                if (next == null) {
+                    next = computeStep(u, script, depth, pa);
+                    step.next[script] = next;
                 }
+                path[depth++] = next;
+                step = next;
+                
                 // If the assignment isn't consistent, break out of the cycle.
-                else {
+                if (!step.consistent) {
                     consistent = false;
                     break;
                 }
+                
+                if (step.assignedDamage != null) {
+                    assignedDamage.put(step.assignedDamage.m_a.getID(), assignedDamage.get(step.assignedDamage.m_a.getID()) + step.assignedDamage.m_b);
+                }
+                pa.getResourceUsage().merge(step.resourceUsage);
+                pa.addUnitAction(u, new UnitAction(step.action));
+                if (step.abstractAction != null) {
+                    // The abstract action of a step is only handed out once,
+                    // so that returned actions never share them.
+                    uaas.put(u.getID(), step.abstractActionUsed ? step.abstractAction.clone() : step.abstractAction);
+                    step.abstractActionUsed = true;
+                }
             }
         
             moveCurrentChoice();
 
-            // If the same player action based on the same updateable abstract
-            // actions was already returned, skip it.
-            if (checkForDuplicates(pa, uaas)) {
-                continue;
-            }
-            
-            // If a consistent assignment was found, return it.
-            if (consistent) {
+            // If a consistent assignment was found, return it, unless the same
+            // player action based on the same updateable abstract actions was
+            // already returned.
+            if (consistent && returnedActions.add(new JointAction(pa, uaas))) {
                 lastAction = pa;
                 generated++;
                 abstractActions.put(pa, uaas);
@@ -254,16 +377,131 @@ public class ScriptedActionGenerator {
         return null;
     }
     
+    /**
+     * Runs the given script for the unit at the given depth of the current
+     * path, with the actions of the preceding units issued in the scratch
+     * state and their damage in assignedDamage, and checks whether the
+     * resulting action is consistent with the given partial player action.
+     */
+    private Step computeStep(Unit u, int script, int depth, PlayerAction pa) {
+        if (++cachedSteps > MAX_CACHED_STEPS) {
+            clearSteps();
+        }
+        GameState gsc = prepareScratch(depth);
+        Step step = new Step(scripts.size());
+        
+        UnitScript us = scripts.get(script).instantiate(u, gsc, assignedDamage);
+        UnitAction ua = null;
+        if (us != null) {
+            ua = us.getAction(u, gsc);
+        }
+        
+        // If the chosen unit script didn't generate a unit action,
+        // assign the unit an action of type None.
+        if (ua == null) {
+            ua = new UnitAction(UnitAction.TYPE_NONE, 1);
+        }
+        // Otherwise remember the abstract action and the damage it assigns.
+        else {
+            step.abstractAction = (UpdateableAbstractAction)us.getAbstractAction();
+            step.assignedDamage = step.abstractAction.getAssignedDamage();
+        }
+        
+        step.action = ua;
+        step.resourceUsage = ua.resourceUsage(u, gsc.getPhysicalGameState());
+        step.consistent = pa.getResourceUsage().consistentWith(step.resourceUsage, gameState);
+        return step;
+    }
+    
+    /**
+     * Brings the scratch state to the game state with the actions of the
+     * first 'depth' steps of the current path issued, undoing the actions of
+     * the previously applied steps that aren't on it.
+     */
+    private GameState prepareScratch(int depth) {
+        if (scratch == null) {
+            scratch = gameState.clone();
+            appliedDepth = 0;
+        }
+        int common = 0;
+        while (common < appliedDepth && common < depth && applied[common] == path[common]) {
+            common++;
+        }
+        int n = assignableUnits.size();
+        while (appliedDepth > common) {
+            --appliedDepth;
+            scratch.unissue(assignableUnits.get(n - 1 - appliedDepth));
+        }
+        while (appliedDepth < depth) {
+            PlayerAction auxiliaryAction = new PlayerAction();
+            auxiliaryAction.addUnitAction(assignableUnits.get(n - 1 - appliedDepth), path[appliedDepth].action);
+            scratch.issue(auxiliaryAction);
+            applied[appliedDepth] = path[appliedDepth];
+            appliedDepth++;
+        }
+        return scratch;
+    }
+    
+    /**
+     * Forgets the computed steps and the scratch state.
+     */
+    private void clearSteps() {
+        rootStep = new Step(scripts.size());
+        cachedSteps = 0;
+        scratch = null;
+        appliedDepth = 0;
+        Arrays.fill(applied, null);
+    }
+    
     /**
      * Returns a random player action for the game state in this object. The action
      * is still stored in the abstractActions variable, so using this method
      * probably shouldn't be mixed with using the getNextAction method.
      */
     public PlayerAction getRandom() {
-	PlayerAction pa = new PlayerAction();
-	pa.setResourceUsage(base_ru.clone());
         Map<Long, UpdateableAbstractAction> uaas = new HashMap<>();
-        GameState gsc = gameState.clone();
+        PlayerAction pa = assignRandom(gameState.clone(), scripts, player, base_ru.clone(), assignedDamage, uaas);
+        
+        // Stored in abstractActions so that the getCorrespondingUAAs method works properly.
+        abstractActions.put(pa, uaas);
+        returnedActions.add(new JointAction(pa, uaas));
+	return pa;
+    }
+    
+    /**
+     * Does the same as getRandom, but without creating a generator or
+     * cloning the state: the actions are issued in the given state as they
+     * are picked, and stay issued. The updateable abstract actions of the
+     * returned action are put in uaas. The damage map is only used as
+     * scratch space, so that it can be reused by the caller.
+     */
+    public static PlayerAction issueRandom(GameState gs, List<DependentUnitScript> scripts, int player,
+                                           Map<Long, Integer> assignedDamage, Map<Long, UpdateableAbstractAction> uaas) {
+        ResourceUsage ru = new ResourceUsage();
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        assignedDamage.clear();
+        for (Unit u : pgs.getUnits()) {
+            UnitActionAssignment uaa = gs.unitActions.get(u);
+            if (uaa != null) {
+                ru.merge(uaa.action.resourceUsage(u, pgs));
+            }
+            if (u.getPlayer() != player) {
+                assignedDamage.put(u.getID(), 0);
+            }
+        }
+        return assignRandom(gs, scripts, player, ru, assignedDamage, uaas);
+    }
+    
+    /**
+     * Assigns a random script to every unit of the player that has no action
+     * in the given state, issuing the actions in it one by one, so that the
+     * scripts of the following units take them into account.
+     */
+    private static PlayerAction assignRandom(GameState gsc, List<DependentUnitScript> scripts, int player, ResourceUsage ru,
+                                             Map<Long, Integer> assignedDamage, Map<Long, UpdateableAbstractAction> uaas) {
+        SplittableRandom r = RandomSource.current();
+	PlayerAction pa = new PlayerAction();
+	pa.setResourceUsage(ru);
         PhysicalGameState pgs = gsc.getPhysicalGameState();
         
         // Cycle through all the units and try to assign each of them a random action.
@@ -304,7 +542,7 @@ public class ScriptedActionGenerator {
                     ResourceUsage r2 = ua.resourceUsage(u, pgs);
 
                     // Check for consistency.
-                    if (pa.getResourceUsage().consistentWith(r2, gameState)) {
+                    if (pa.getResourceUsage().consistentWith(r2, gsc)) {
                         pa.getResourceUsage().merge(r2);
                         pa.addUnitAction(u, ua);
                         consistent = true;
@@ -324,29 +562,95 @@ public class ScriptedActionGenerator {
                 }
             }
         }
-        
-        // Stored in abstractActions so that the getCorrespondingUAAs method works properly.
-        abstractActions.put(pa, uaas);
-	return pa;
+        return pa;
     }
     
     /**
      * Fetches the index of the script for a given unit based on the current choice
-     * of scripts given by the last element in the choices variable.
+     * of scripts.
      */
     private int getScriptIndex(int unitIndex) {
-        int current = choices.get(choices.size() - 1);             
-        return (current % (int)Math.pow(scripts.size(), unitIndex + 1)) / (int)Math.pow(scripts.size(), unitIndex);
+        return scriptIndices[unitIndex];
     }
     
     /**
      * Moves the current choice of scripts to the next random element. 
      */
     private void moveCurrentChoice() {
-        choices.remove(choices.size() - 1);
-        if (choices.size() == 0) {
+        remainingChoices--;
+        if (remainingChoices <= 0) {
             moreActions = false;
         }
+        else {
+            decodeChoice(nextChoice());
+        }
+    }
+    
+    /**
+     * Computes the number of choices and picks a random permutation of them.
+     */
+    private void initializeChoices() {
+        int nScripts = scripts.size();
+        int nUnits = assignableUnits.size();
+        scriptIndices = new int[nUnits];
+        
+        choiceCount = 1;
+        enumeratedUnits = 0;
+        while (enumeratedUnits < nUnits && (nScripts <= 1 || choiceCount <= MAX_CHOICES / nScripts)) {
+            choiceCount *= nScripts;
+            enumeratedUnits++;
+        }
+        if (nScripts == 0 && nUnits > 0) {
+            choiceCount = 0;
+        }
+        remainingChoices = choiceCount;
+        if (choiceCount == 0) {
+            moreActions = false;
+            return;
+        }
+        
+        SplittableRandom r = RandomSource.current();
+        int bits = 64 - Long.numberOfLeadingZeros(choiceCount - 1);
+        choiceMask = bits == 0 ? 0 : -1L >>> (64 - bits);
+        lcgMultiplier = (r.nextLong() << 2) | 1;
+        lcgIncrement = r.nextLong() | 1;
+        lcgState = r.nextLong() & choiceMask;
+        mixMultiplier = r.nextLong() | 1;
+        mixShift = bits / 2 + 1;
+        hashSeed = r.nextLong();
+        decodeChoice(nextChoice());
+    }
+    
+    /**
+     * Returns the next choice of the permutation. Since the generator visits
+     * every state once per period and the mixing is a bijection, every choice
+     * is returned exactly once in choiceCount calls.
+     */
+    private long nextChoice() {
+        long choice;
+        do {
+            lcgState = (lcgMultiplier * lcgState + lcgIncrement) & choiceMask;
+            choice = (lcgState * mixMultiplier) & choiceMask;
+            choice ^= choice >>> mixShift;
+            choice = (choice * mixMultiplier) & choiceMask;
+        } while (choice >= choiceCount);
+        return choice;
+    }
+    
+    /**
+     * Stores the scripts that the given choice assigns to the units in
+     * scriptIndices.
+     */
+    private void decodeChoice(long choice) {
+        int nScripts = scripts.size();
+        long rest = choice;
+        for (int i = 0; i < enumeratedUnits; i++) {
+            scriptIndices[i] = (int)(rest % nScripts);
+            rest /= nScripts;
+        }
+        for (int i = enumeratedUnits; i < scriptIndices.length; i++) {
+            scriptIndices[i] = (int)Long.remainderUnsigned(mix(hashSeed + choice * 0x9e3779b97f4a7c15L + i), nScripts);
+        }
     }
     
     /**
@@ -374,6 +678,23 @@ public class ScriptedActionGenerator {
     }
     
     
+    /**
+     * Replaces the game state of this generator with an equal one, e.g. one
+     * that was rebuilt after the original was dropped to save memory. The units
+     * that can be assigned actions are looked up by their IDs, so that the
+     * generated actions refer to the units of the new state. If the state is
+     * null, no actions can be generated until a new one is set.
+     */
+    public void setGameState(GameState gs) {
+        gameState = gs;
+        clearSteps();
+        if (gs != null) {
+            for (int i = 0; i < assignableUnits.size(); i++) {
+                assignableUnits.set(i, gs.getUnit(assignableUnits.get(i).getID()));
+            }
+        }
+    }
+    
     public List<DependentUnitScript> getScripts() {
         return scripts;
     }
@@ -388,30 +709,13 @@ public class ScriptedActionGenerator {
     }
     
     /**
-     * Checks whether the given player action derived from the given sequence of
-     * updateable abstract actions has already been generated.
-     * true <=> duplicate found
-     */
-    private boolean checkForDuplicates(PlayerAction p1, Map<Long, UpdateableAbstractAction> u1) {        
-        for(PlayerAction p2 : abstractActions.keySet()) {
-            if (p1.equals(p2)) {
-                for (Map.Entry<Long, UpdateableAbstractAction> kv : u1.entrySet()) {
-                    if (!abstractActions.get(p2).containsKey(kv.getKey()) || !abstractActions.get(p2).get(kv.getKey()).equals(kv.getValue())) {
-                        return false;
-                    }
-                }
-                
-                return true;
-            }
-        }
-        
-        return false;
-    }
-    
-    /**
-     * Returns the number of possible actions this generator can generate.
+     * Returns the number of possible actions this generator can generate,
+     * or Integer.MAX_VALUE if there are more.
      */
     public int getActionCount() {
-        return (int)Math.pow(scripts.size(), assignableUnits.size());
+        if (enumeratedUnits < assignableUnits.size()) {
+            return Integer.MAX_VALUE;
+        }
+        return (int)Math.min(choiceCount, Integer.MAX_VALUE);
     }
 }
@@ -7,8 +7,10 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -27,10 +29,17 @@ import util.XMLWriter;
  *
  * @author santi
  */
-public class Trace {
+public class Trace implements AutoCloseable {
 
     UnitTypeTable utt;
-    List<TraceEntry> entries = new LinkedList<>();
+    List<TraceEntry> entries = new ArrayList<>();
+
+    /**
+     * The reader of a trace opened with {@link #fromBinary(String)}, from
+     * which the entries and the states are read when they are asked for,
+     * or null if the entries are in memory
+     */
+    TraceReader reader;
 
     /**
      * Constructs from a UnitTypeTable
@@ -61,6 +70,9 @@ public class Trace {
      * @return
      */
     public int getLength() {
+        if (reader != null) {
+            return reader.getLength();
+        }
         return entries.get(entries.size() - 1).getTime();
     }
 
@@ -174,6 +186,69 @@ public class Trace {
 		 return new Trace(new SAXBuilder().build(zis).getRootElement());
     }
 
+    /**
+     * Writes this trace to the given file in the binary format of
+     * {@link TraceWriter}. The unit actions in progress at each entry aren't
+     * stored in a Trace, so they aren't written either.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void toBinary(String path) throws IOException {
+        try (TraceWriter writer = new TraceWriter(path, utt)) {
+            for (TraceEntry te : entries) {
+                writer.addEntry(te);
+            }
+        }
+    }
+
+    /**
+     * Opens a trace written by {@link TraceWriter}. The entries aren't read
+     * into memory: the list of entries reads each one from the file when it
+     * is asked for (and can't be added to), and {@link #getGameStateAtCycle}
+     * starts at the keyframe before the cycle. The file stays open until the
+     * trace is closed. Use {@link TraceReader#toTrace()} to read a whole trace
+     * into memory.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static Trace fromBinary(String path) throws IOException {
+        TraceReader reader = new TraceReader(path);
+        Trace trace = new Trace(reader.getUnitTypeTable());
+        trace.reader = reader;
+        trace.entries = new AbstractList<TraceEntry>() {
+            @Override
+            public TraceEntry get(int i) {
+                try {
+                    return reader.getEntry(i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return reader.getEntryCount();
+            }
+        };
+        return trace;
+    }
+
+    /**
+     * Closes the file of a trace opened with {@link #fromBinary(String)}.
+     * Does nothing for the other traces.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
     /**
      * Constructs the Trace from a XML element
      *
@@ -214,12 +289,21 @@ public class Trace {
     /**
      * Simulates the game from the from the last cached cycle (initialized as
      * null) to get the appropriate unit actions. Thus, this function can be
-     * slow, do not use in the internal loop of any AI!
+     * slow, do not use in the internal loop of any AI! A trace opened with
+     * {@link #fromBinary(String)} simulates from the keyframe before the
+     * cycle instead (see {@link TraceReader#getGameStateAtCycle(int)}).
      *
      * @param cycle
      * @return
      */
     public GameState getGameStateAtCycle(int cycle) {
+        if (reader != null) {
+            try {
+                return reader.getGameStateAtCycle(cycle);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         GameState gs = null;
         for (TraceEntry te : getEntries()) {
             if (gs == null) {
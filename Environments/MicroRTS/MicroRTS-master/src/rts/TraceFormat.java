@@ -0,0 +1,119 @@
+package rts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * The binary trace format written by {@link TraceWriter} and read by
+ * {@link TraceReader}.
+ *
+ * A trace file starts with a header holding the unit type table as JSON. It
+ * is followed by blocks of entries, each compressed on its own, so that any
+ * block can be decompressed without the ones before it. The first entry of
+ * a block is a keyframe, which holds the whole game state, and the other
+ * entries only hold what changed since the entry before them. The file ends
+ * with an index of the blocks, with their offsets and the times of their
+ * keyframes, and a trailer pointing to the index.
+ *
+ * Every entry holds the state at the time of the entry, including the unit
+ * actions in progress, and the actions issued at that time. Numbers are
+ * written as variable length integers, in zigzag encoding where they can be
+ * negative.
+ */
+class TraceFormat {
+
+    static final int MAGIC = 0x54524331;   // "TRC1"
+
+    static final int KEYFRAME = 0;
+    static final int DELTA = 1;
+
+    /**
+     * The size of the trailer: the offset of the index, the number of
+     * entries, the time of the last entry and the magic number.
+     */
+    static final int TRAILER_SIZE = 8 + 4 + 4 + 4;
+
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+
+    static void writeInt(DataOutput out, int v) throws IOException {
+        writeVarLong(out, ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL);
+    }
+
+    static int readInt(DataInput in) throws IOException {
+        int v = (int) readVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void writeUnit(DataOutput out, Unit u) throws IOException {
+        writeVarLong(out, u.getID());
+        writeInt(out, u.getPlayer());
+        writeInt(out, u.getType().ID);
+        writeInt(out, u.getX());
+        writeInt(out, u.getY());
+        writeInt(out, u.getResources());
+        writeInt(out, u.getHitPoints());
+    }
+
+    static Unit readUnit(DataInput in, UnitTypeTable utt) throws IOException {
+        long ID = readVarLong(in);
+        int player = readInt(in);
+        UnitType type = utt.getUnitType(readInt(in));
+        int x = readInt(in);
+        int y = readInt(in);
+        int resources = readInt(in);
+        Unit u = new Unit(ID, player, type, x, y, resources);
+        u.setHitPoints(readInt(in));
+        return u;
+    }
+
+    /**
+     * Whether the unit has the same state in both maps, i.e. whether it can
+     * be left out of a delta.
+     */
+    static boolean sameUnit(Unit u1, Unit u2) {
+        return u1.getPlayer() == u2.getPlayer() && u1.getType() == u2.getType()
+                && u1.getX() == u2.getX() && u1.getY() == u2.getY()
+                && u1.getResources() == u2.getResources() && u1.getHitPoints() == u2.getHitPoints();
+    }
+
+    static void writeAction(DataOutput out, UnitAction a) throws IOException {
+        writeInt(out, a.getType());
+        writeInt(out, a.getDirection());
+        writeInt(out, a.getLocationX());
+        writeInt(out, a.getLocationY());
+        writeInt(out, a.getUnitType() == null ? -1 : a.getUnitType().ID);
+    }
+
+    static UnitAction readAction(DataInput in, UnitTypeTable utt) throws IOException {
+        int type = readInt(in);
+        int direction = readInt(in);
+        int x = readInt(in);
+        int y = readInt(in);
+        int unitType = readInt(in);
+        UnitAction a = new UnitAction(type, direction, unitType < 0 ? null : utt.getUnitType(unitType));
+        a.x = x;
+        a.y = y;
+        return a;
+    }
+}
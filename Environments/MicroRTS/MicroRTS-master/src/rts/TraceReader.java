@@ -0,0 +1,358 @@
+package rts;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/**
+ * Reads a trace written by {@link TraceWriter}. Only the index of the blocks
+ * is read when the trace is opened. The entries are decompressed when they
+ * are asked for, starting at the keyframe of their block, so any entry can be
+ * reached without reading the ones before its block, and reading the entries
+ * in order decompresses every block once.
+ */
+public class TraceReader implements AutoCloseable {
+
+    RandomAccessFile file;
+    UnitTypeTable utt;
+
+    long[] offsets;
+    int[] keyframeTimes;
+    int[] firstEntries;     // the index of the first entry of each block, and the number of entries at the end
+    int lastTime;
+
+    /**
+     * The block that is being read, the index of the next entry in it, the
+     * time of that entry (read ahead), and the state after the last entry
+     * that was read.
+     */
+    int block = -1;
+    int nextEntry;
+    int nextTime;
+    DataInputStream in;
+    State state;
+
+    /**
+     * The state stored by an entry.
+     */
+    static class State {
+        int time;
+        int cancelationCounter;
+        int width, height;
+        int[] terrain;
+        int[] resources;
+        Map<Long, Unit> units = new LinkedHashMap<>();
+        Map<Long, UnitActionAssignment> assignments = new LinkedHashMap<>();
+        List<Pair<Long, UnitAction>> actions = new ArrayList<>();
+    }
+
+    /**
+     * Opens the trace in the given file, with the unit type table stored in it.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public TraceReader(String path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Opens the trace in the given file, overriding the unit type table stored
+     * in it with the given one, unless it is null.
+     *
+     * @param path
+     * @param a_utt
+     * @throws IOException
+     */
+    public TraceReader(String path, UnitTypeTable a_utt) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            if (file.readInt() != TraceFormat.MAGIC) {
+                throw new IOException(path + " is not a binary trace.");
+            }
+            byte[] json = new byte[file.readInt()];
+            file.readFully(json);
+            utt = a_utt != null ? a_utt : UnitTypeTable.fromJSON(new String(json, StandardCharsets.UTF_8));
+
+            file.seek(file.length() - TraceFormat.TRAILER_SIZE);
+            long indexOffset = file.readLong();
+            int entries = file.readInt();
+            lastTime = file.readInt();
+            if (file.readInt() != TraceFormat.MAGIC) {
+                throw new IOException(path + " is not a complete binary trace.");
+            }
+
+            file.seek(indexOffset);
+            int blocks = file.readInt();
+            offsets = new long[blocks + 1];
+            keyframeTimes = new int[blocks];
+            firstEntries = new int[blocks + 1];
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = file.readLong();
+                keyframeTimes[i] = file.readInt();
+                firstEntries[i + 1] = firstEntries[i] + file.readInt();
+            }
+            offsets[blocks] = indexOffset;
+            if (firstEntries[blocks] != entries) {
+                throw new IOException(path + " has an inconsistent index.");
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public UnitTypeTable getUnitTypeTable() {
+        return utt;
+    }
+
+    /**
+     * Returns the number of entries of the trace
+     *
+     * @return
+     */
+    public int getEntryCount() {
+        return firstEntries[firstEntries.length - 1];
+    }
+
+    /**
+     * Returns the number of the last frame stored in this trace, or -1 if it
+     * has no entries
+     *
+     * @return
+     */
+    public int getLength() {
+        return lastTime;
+    }
+
+    /**
+     * Returns the entry with the given index, with its own copy of the state.
+     *
+     * @param i
+     * @return
+     * @throws IOException
+     */
+    public TraceEntry getEntry(int i) throws IOException {
+        if (i < 0 || i >= getEntryCount()) {
+            throw new IndexOutOfBoundsException("Entry " + i + " of a trace with " + getEntryCount() + " entries.");
+        }
+        int b = Arrays.binarySearch(firstEntries, i);
+        if (b < 0) {
+            b = -b - 2;
+        }
+        while (b + 1 < firstEntries.length - 1 && firstEntries[b + 1] == i) {
+            b++;
+        }
+        // the state is still the one of the entry, if it was the last one read
+        if (b != block || nextEntry > i + 1 || state == null) {
+            seek(b);
+        }
+        while (nextEntry <= i) {
+            readEntry();
+        }
+        return toEntry(state);
+    }
+
+    /**
+     * Returns the game state at the given cycle. The state is built from the
+     * last entry before or at the cycle, and if the cycle is later, the actions
+     * of the entry are issued and the game is simulated until the cycle.
+     * Thus the states at the times of the entries are exact, and the others
+     * are as exact as the simulation. There is no state before the first
+     * entry, so the cycle can't be earlier than it.
+     *
+     * @param cycle
+     * @return
+     * @throws IOException
+     */
+    public GameState getGameStateAtCycle(int cycle) throws IOException {
+        if (keyframeTimes.length == 0) {
+            throw new IllegalStateException("The trace has no entries.");
+        }
+        if (cycle < keyframeTimes[0]) {
+            throw new IllegalArgumentException("Cycle " + cycle + " is before the first entry of the trace, at " + keyframeTimes[0] + ".");
+        }
+        // the last block whose keyframe isn't after the cycle
+        int b = Arrays.binarySearch(keyframeTimes, cycle);
+        if (b < 0) {
+            b = -b - 2;
+        }
+        while (b + 1 < keyframeTimes.length && keyframeTimes[b + 1] <= cycle) {
+            b++;
+        }
+        if (b != block || state == null || state.time > cycle) {
+            seek(b);
+            readEntry();
+        }
+        while (nextEntry < firstEntries[block + 1] && nextTime <= cycle) {
+            readEntry();
+        }
+
+        GameState gs = toGameState(state);
+        if (gs.getTime() < cycle) {
+            PlayerAction pa0 = new PlayerAction();
+            PlayerAction pa1 = new PlayerAction();
+            for (Pair<Long, UnitAction> a : state.actions) {
+                Unit u = gs.getUnit(a.m_a);
+                if (u != null) {
+                    (u.getPlayer() == 0 ? pa0 : pa1).addUnitAction(u, a.m_b);
+                }
+            }
+            gs.issueSafe(pa0);
+            gs.issueSafe(pa1);
+            boolean gameover = false;
+            while (!gameover && gs.getTime() < cycle) {
+                gameover = gs.cycle();
+            }
+        }
+        return gs;
+    }
+
+    /**
+     * Returns the index of the winner player, or -1 if there are no entries
+     * or the game wasn't over at the last entry.
+     *
+     * @return
+     * @throws IOException
+     */
+    public int winner() throws IOException {
+        if (getEntryCount() == 0) {
+            return -1;
+        }
+        return getEntry(getEntryCount() - 1).getPhysicalGameState().winner();
+    }
+
+    /**
+     * Reads the whole trace into a {@link Trace}.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Trace toTrace() throws IOException {
+        Trace trace = new Trace(utt);
+        for (int i = 0; i < getEntryCount(); i++) {
+            trace.addEntry(getEntry(i));
+        }
+        return trace;
+    }
+
+    private void seek(int b) throws IOException {
+        byte[] bytes = new byte[(int) (offsets[b + 1] - offsets[b])];
+        file.seek(offsets[b]);
+        file.readFully(bytes);
+        in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes))));
+        block = b;
+        nextEntry = firstEntries[b];
+        nextTime = TraceFormat.readInt(in);
+        state = null;
+    }
+
+    private void readEntry() throws IOException {
+        boolean keyframe = in.readByte() == TraceFormat.KEYFRAME;
+        State s = keyframe ? new State() : state;
+        s.time = nextTime;
+        s.cancelationCounter = TraceFormat.readInt(in);
+        if (keyframe) {
+            s.width = TraceFormat.readInt(in);
+            s.height = TraceFormat.readInt(in);
+            s.terrain = new int[s.width * s.height];
+            for (int i = 0; i < s.terrain.length; i++) {
+                s.terrain[i] = TraceFormat.readInt(in);
+            }
+        }
+
+        s.resources = new int[TraceFormat.readInt(in)];
+        for (int i = 0; i < s.resources.length; i++) {
+            s.resources[i] = TraceFormat.readInt(in);
+        }
+
+        if (!keyframe) {
+            for (int n = TraceFormat.readInt(in); n > 0; n--) {
+                s.units.remove(TraceFormat.readVarLong(in));
+            }
+        }
+        for (int n = TraceFormat.readInt(in); n > 0; n--) {
+            Unit u = TraceFormat.readUnit(in, utt);
+            s.units.put(u.getID(), u);
+        }
+
+        if (!keyframe) {
+            for (int n = TraceFormat.readInt(in); n > 0; n--) {
+                s.assignments.remove(TraceFormat.readVarLong(in));
+            }
+        }
+        for (int n = TraceFormat.readInt(in); n > 0; n--) {
+            long ID = TraceFormat.readVarLong(in);
+            UnitAction a = TraceFormat.readAction(in, utt);
+            int time = TraceFormat.readInt(in);
+            s.assignments.put(ID, new UnitActionAssignment(null, a, time));
+        }
+
+        s.actions.clear();
+        for (int n = TraceFormat.readInt(in); n > 0; n--) {
+            long ID = TraceFormat.readVarLong(in);
+            s.actions.add(new Pair<>(ID, TraceFormat.readAction(in, utt)));
+        }
+
+        state = s;
+        nextEntry++;
+        if (nextEntry < firstEntries[block + 1]) {
+            nextTime = TraceFormat.readInt(in);
+        }
+    }
+
+    private PhysicalGameState toPhysicalGameState(State s) {
+        PhysicalGameState pgs = new PhysicalGameState(s.width, s.height);
+        pgs.setTerrain(s.terrain);
+        for (int i = 0; i < s.resources.length; i++) {
+            pgs.addPlayer(new Player(i, s.resources[i]));
+        }
+        for (Unit u : s.units.values()) {
+            pgs.getUnits().add(u.clone());
+        }
+        return pgs;
+    }
+
+    private GameState toGameState(State s) {
+        GameState gs = new GameState(toPhysicalGameState(s), utt);
+        gs.time = s.time;
+        gs.unitCancelationCounter = s.cancelationCounter;
+        for (Map.Entry<Long, UnitActionAssignment> e : s.assignments.entrySet()) {
+            Unit u = gs.getUnit(e.getKey());
+            if (u != null) {
+                gs.unitActions.put(u, new UnitActionAssignment(u, e.getValue().action, e.getValue().time));
+            }
+        }
+        return gs;
+    }
+
+    private TraceEntry toEntry(State s) {
+        PhysicalGameState pgs = toPhysicalGameState(s);
+        TraceEntry te = new TraceEntry(pgs, s.time);
+        for (Pair<Long, UnitAction> a : s.actions) {
+            Unit u = pgs.getUnit(a.m_a);
+            if (u == null) {
+                System.err.println("Undefined unit ID " + a.m_a + " in action " + a.m_b + " at time " + s.time);
+            }
+            te.getActions().add(new Pair<>(u, a.m_b));
+        }
+        return te;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
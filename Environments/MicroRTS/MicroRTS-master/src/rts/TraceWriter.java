@@ -0,0 +1,315 @@
+package rts;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/**
+ * Writes a trace in the binary format described in {@link TraceFormat} while
+ * the game is played. Every entry is compressed and written as soon as it is
+ * added, and only the state of the previous entry is kept to compute the
+ * next delta, so the memory used doesn't grow with the length of the game.
+ * The written trace can be read with {@link TraceReader}.
+ */
+public class TraceWriter implements AutoCloseable {
+
+    /**
+     * The number of entries between two keyframes when it isn't given.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+    final int keyframeInterval;
+
+    FileOutputStream file;
+    DataOutputStream out;
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    long blockOffset;
+    int entriesInBlock = 0;
+    int entries = 0;
+    int lastTime = -1;
+
+    /**
+     * The offsets, keyframe times and numbers of entries of the blocks
+     * written so far.
+     */
+    List<long[]> index = new ArrayList<>();
+
+    /**
+     * The state of the previous entry: the units by ID and the unit actions
+     * in progress by unit ID.
+     */
+    Map<Long, Unit> units = new HashMap<>();
+    Map<Long, UnitActionAssignment> assignments = new HashMap<>();
+
+    /**
+     * Opens the given file and writes the header of a trace with the given
+     * unit type table.
+     *
+     * @param path
+     * @param utt
+     * @throws IOException
+     */
+    public TraceWriter(String path, UnitTypeTable utt) throws IOException {
+        this(path, utt, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Opens the given file and writes the header of a trace with the given
+     * unit type table, writing a keyframe every keyframeInterval entries.
+     * Longer intervals make the trace smaller, and random access slower.
+     *
+     * @param path
+     * @param utt
+     * @param a_keyframeInterval
+     * @throws IOException
+     */
+    public TraceWriter(String path, UnitTypeTable utt, int a_keyframeInterval) throws IOException {
+        keyframeInterval = Math.max(1, a_keyframeInterval);
+        file = new FileOutputStream(path);
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(TraceFormat.MAGIC);
+        StringWriter json = new StringWriter();
+        try {
+            utt.toJSON(json);
+        } catch (Exception e) {
+            throw new IOException("Can't write the unit type table.", e);
+        }
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        header.writeInt(bytes.length);
+        header.write(bytes);
+        header.flush();
+    }
+
+    /**
+     * Adds an entry with the given state, without actions.
+     *
+     * @param gs
+     * @throws IOException
+     */
+    public void addEntry(GameState gs) throws IOException {
+        addEntry(gs, new PlayerAction[0]);
+    }
+
+    /**
+     * Adds an entry with the given state and the given actions, which are
+     * about to be issued in it.
+     *
+     * @param gs
+     * @param actions
+     * @throws IOException
+     */
+    public void addEntry(GameState gs, PlayerAction... actions) throws IOException {
+        List<Pair<Unit, UnitAction>> l = new ArrayList<>();
+        for (PlayerAction pa : actions) {
+            l.addAll(pa.getActions());
+        }
+        addEntry(gs.getTime(), gs.getPhysicalGameState(), gs.unitCancelationCounter, gs.unitActions.values(), l);
+    }
+
+    /**
+     * Adds an entry of an existing trace. The unit actions in progress at
+     * the time of the entry aren't known, so none are stored.
+     *
+     * @param te
+     * @throws IOException
+     */
+    public void addEntry(TraceEntry te) throws IOException {
+        addEntry(te.getTime(), te.getPhysicalGameState(), 0, new ArrayList<>(), te.getActions());
+    }
+
+    void addEntry(int time, PhysicalGameState pgs, int cancelationCounter, Iterable<UnitActionAssignment> uaas,
+                  List<Pair<Unit, UnitAction>> actions) throws IOException {
+        boolean keyframe = entriesInBlock == 0;
+        if (keyframe) {
+            startBlock(time);
+        }
+        TraceFormat.writeInt(out, time);
+        out.writeByte(keyframe ? TraceFormat.KEYFRAME : TraceFormat.DELTA);
+        TraceFormat.writeInt(out, cancelationCounter);
+
+        if (keyframe) {
+            TraceFormat.writeInt(out, pgs.getWidth());
+            TraceFormat.writeInt(out, pgs.getHeight());
+            for (int t : pgs.getTerrain()) {
+                TraceFormat.writeInt(out, t);
+            }
+        }
+
+        List<Player> players = pgs.getPlayers();
+        TraceFormat.writeInt(out, players.size());
+        for (Player p : players) {
+            TraceFormat.writeInt(out, p.getResources());
+        }
+
+        writeUnits(pgs, keyframe);
+        writeAssignments(uaas, keyframe);
+
+        TraceFormat.writeInt(out, actions.size());
+        for (Pair<Unit, UnitAction> ua : actions) {
+            TraceFormat.writeVarLong(out, ua.m_a.getID());
+            TraceFormat.writeAction(out, ua.m_b);
+        }
+
+        entries++;
+        lastTime = time;
+        if (++entriesInBlock == keyframeInterval) {
+            endBlock();
+        }
+    }
+
+    private void writeUnits(PhysicalGameState pgs, boolean keyframe) throws IOException {
+        List<Unit> changed = new ArrayList<>();
+        Map<Long, Unit> current = new HashMap<>();
+        for (Unit u : pgs.getUnits()) {
+            current.put(u.getID(), u);
+            Unit previous = units.get(u.getID());
+            if (keyframe || previous == null || !TraceFormat.sameUnit(previous, u)) {
+                changed.add(u);
+            }
+        }
+        if (!keyframe) {
+            List<Long> removed = new ArrayList<>();
+            for (Long ID : units.keySet()) {
+                if (!current.containsKey(ID)) {
+                    removed.add(ID);
+                }
+            }
+            TraceFormat.writeInt(out, removed.size());
+            for (Long ID : removed) {
+                TraceFormat.writeVarLong(out, ID);
+            }
+        }
+        TraceFormat.writeInt(out, changed.size());
+        for (Unit u : changed) {
+            TraceFormat.writeUnit(out, u);
+            units.put(u.getID(), u.clone());
+        }
+        units.keySet().retainAll(current.keySet());
+    }
+
+    private void writeAssignments(Iterable<UnitActionAssignment> uaas, boolean keyframe) throws IOException {
+        List<UnitActionAssignment> changed = new ArrayList<>();
+        Map<Long, UnitActionAssignment> current = new HashMap<>();
+        for (UnitActionAssignment uaa : uaas) {
+            current.put(uaa.unit.getID(), new UnitActionAssignment(uaa.unit, uaa.action, uaa.time));
+            UnitActionAssignment previous = assignments.get(uaa.unit.getID());
+            if (keyframe || previous == null || previous.time != uaa.time || !previous.action.equals(uaa.action)) {
+                changed.add(uaa);
+            }
+        }
+        if (!keyframe) {
+            List<Long> removed = new ArrayList<>();
+            for (Long ID : assignments.keySet()) {
+                if (!current.containsKey(ID)) {
+                    removed.add(ID);
+                }
+            }
+            TraceFormat.writeInt(out, removed.size());
+            for (Long ID : removed) {
+                TraceFormat.writeVarLong(out, ID);
+            }
+        }
+        TraceFormat.writeInt(out, changed.size());
+        for (UnitActionAssignment uaa : changed) {
+            TraceFormat.writeVarLong(out, uaa.unit.getID());
+            TraceFormat.writeAction(out, uaa.action);
+            TraceFormat.writeInt(out, uaa.time);
+        }
+        assignments = current;
+    }
+
+    private void startBlock(int time) throws IOException {
+        blockOffset = file.getChannel().position();
+        index.add(new long[]{blockOffset, time, 0});
+        deflater.reset();
+        OutputStream blockStream = new DeflaterOutputStream(new Unclosed(file), deflater, 8192);
+        out = new DataOutputStream(new BufferedOutputStream(blockStream, 8192));
+    }
+
+    private void endBlock() throws IOException {
+        out.close();
+        index.get(index.size() - 1)[2] = entriesInBlock;
+        entriesInBlock = 0;
+        out = null;
+    }
+
+    /**
+     * Finishes the last block, writes the index and closes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (entriesInBlock > 0) {
+                endBlock();
+            }
+            long indexOffset = file.getChannel().position();
+            DataOutputStream tail = new DataOutputStream(new BufferedOutputStream(file));
+            tail.writeInt(index.size());
+            for (long[] block : index) {
+                tail.writeLong(block[0]);
+                tail.writeInt((int) block[1]);
+                tail.writeInt((int) block[2]);
+            }
+            tail.writeLong(indexOffset);
+            tail.writeInt(entries);
+            tail.writeInt(lastTime);
+            tail.writeInt(TraceFormat.MAGIC);
+            tail.flush();
+        } finally {
+            deflater.end();
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * Passes everything to the file, except for close, so that closing the
+     * stream of a block finishes it without closing the file.
+     */
+    static class Unclosed extends OutputStream {
+        final OutputStream os;
+
+        Unclosed(OutputStream a_os) {
+            os = a_os;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            os.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            os.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
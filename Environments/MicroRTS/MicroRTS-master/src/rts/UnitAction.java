@@ -4,7 +4,6 @@ import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 import java.io.Writer;
 import java.util.Objects;
-import java.util.Random;
 import org.jdom.Element;
 import rts.units.Unit;
 import rts.units.UnitType;
@@ -17,8 +16,6 @@ import util.XMLWriter;
  */
 public class UnitAction {
 
-    public static Random r = new Random();  // only used for non-deterministic events    
-
     /**
      * The 'no-op' action
      */
@@ -340,16 +337,16 @@ public class UnitAction {
             case TYPE_MOVE: //moves the unit in the intended direction
                 switch (parameter) {
                     case DIRECTION_UP:
-                        u.setY(u.getY() - 1);
+                        pgs.moveUnit(u, u.getX(), u.getY() - 1);
                         break;
                     case DIRECTION_RIGHT:
-                        u.setX(u.getX() + 1);
+                        pgs.moveUnit(u, u.getX() + 1, u.getY());
                         break;
                     case DIRECTION_DOWN:
-                        u.setY(u.getY() + 1);
+                        pgs.moveUnit(u, u.getX(), u.getY() + 1);
                         break;
                     case DIRECTION_LEFT:
-                        u.setX(u.getX() - 1);
+                        pgs.moveUnit(u, u.getX() - 1, u.getY());
                         break;
                 }
                 break;
@@ -361,7 +358,7 @@ public class UnitAction {
                     if (u.getMinDamage() == u.getMaxDamage()) {
                         damage = u.getMinDamage();
                     } else {
-                        damage = u.getMinDamage() + r.nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
+                        damage = u.getMinDamage() + s.random().nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
                     }
                     other.setHitPoints(other.getHitPoints() - damage);
                     if (other.getHitPoints() <= 0) {
@@ -445,7 +442,7 @@ public class UnitAction {
                         targetx--;
                         break;
                 }
-                Unit newUnit = new Unit(u.getPlayer(), unitType, targetx, targety, 0);                
+                Unit newUnit = new Unit(pgs.newUnitID(), u.getPlayer(), unitType, targetx, targety, 0);                
                 Player p = pgs.getPlayer(u.getPlayer());
                 if((p.getResources() - newUnit.getCost())>=0){
                     pgs.addUnit(newUnit);
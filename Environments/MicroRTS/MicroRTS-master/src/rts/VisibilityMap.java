@@ -0,0 +1,199 @@
+package rts;
+
+import java.util.Arrays;
+import java.util.List;
+import rts.units.Unit;
+
+/**
+ * The cells of a map that the units of a player can see. Every cell counts
+ * the units of the player that see it, so a cell is visible if its count
+ * isn't zero. When the units move, appear or disappear, only the cells seen
+ * by the units that changed are updated, by adding or subtracting the
+ * stencil of their sight radius.
+ *
+ * A unit sees the cells whose euclidean distance from it is at most its
+ * sight radius.
+ */
+class VisibilityMap {
+
+    /**
+     * The offsets of the cells seen by a unit, by sight radius, as pairs of
+     * dx and dy. Computed when first needed. The arrays are never modified,
+     * so they are shared by all the maps and threads.
+     */
+    private static volatile int[][] stencils = new int[0][];
+
+    final int width;
+    final int height;
+
+    /**
+     * The number of units of the player that see each cell. Shared with the
+     * clones of this map until either of them changes.
+     */
+    int[] counts;
+    boolean sharedCounts = false;
+
+    /**
+     * The units of the player that the counts are computed for, in the
+     * order of the list of units: their IDs, and their cells and sight
+     * radiuses packed in one long. The arrays are replaced, not modified,
+     * when the units change, so they can always be shared.
+     */
+    long[] seenIDs = new long[0];
+    long[] seenKeys = new long[0];
+    int seenCount = 0;
+
+    /**
+     * The time of the game and the modification count of the list of units
+     * when the counts were last updated.
+     */
+    int time = -1;
+    int modifications = -1;
+
+    VisibilityMap(int a_width, int a_height) {
+        width = a_width;
+        height = a_height;
+        counts = new int[width * height];
+    }
+
+    /**
+     * Returns a copy of this map, which shares the counts with it until
+     * either of them changes.
+     */
+    VisibilityMap share() {
+        VisibilityMap copy = new VisibilityMap(this);
+        sharedCounts = true;
+        return copy;
+    }
+
+    private VisibilityMap(VisibilityMap m) {
+        width = m.width;
+        height = m.height;
+        counts = m.counts;
+        sharedCounts = true;
+        seenIDs = m.seenIDs;
+        seenKeys = m.seenKeys;
+        seenCount = m.seenCount;
+        time = m.time;
+        modifications = m.modifications;
+    }
+
+    boolean visible(int x, int y) {
+        return counts[x + y * width] != 0;
+    }
+
+    /**
+     * Whether the units may have changed since the counts were updated: the
+     * units only move in the cycles of the game, and only appear or
+     * disappear by modifying the list of units.
+     */
+    boolean stale(GameState gs) {
+        return time != gs.time || modifications != gs.pgs.units.modifications();
+    }
+
+    /**
+     * Updates the counts to the current units of the player. The units keep
+     * their order in the list when other units are removed, and new units
+     * are appended, so the units are matched to the ones that the counts
+     * were computed for by walking both lists. A unit that isn't found is
+     * counted as a new one, and the ones that are skipped as removed, so the
+     * counts stay right even if the order changes.
+     */
+    void update(GameState gs, int player) {
+        List<Unit> units = gs.pgs.getUnits();
+        long[] ids = new long[units.size()];
+        long[] keys = new long[units.size()];
+        int n = 0;
+        int j = 0;
+        for (Unit u : units) {
+            if (u.getPlayer() != player) {
+                continue;
+            }
+            long id = u.getID();
+            long key = pack(u);
+            int k = j;
+            while (k < seenCount && seenIDs[k] != id) {
+                k++;
+            }
+            if (k < seenCount) {
+                for (; j < k; j++) {
+                    add(seenKeys[j], -1);
+                }
+                if (seenKeys[j] != key) {
+                    add(seenKeys[j], -1);
+                    add(key, 1);
+                }
+                j++;
+            } else {
+                add(key, 1);
+            }
+            ids[n] = id;
+            keys[n] = key;
+            n++;
+        }
+        for (; j < seenCount; j++) {
+            add(seenKeys[j], -1);
+        }
+        seenIDs = ids;
+        seenKeys = keys;
+        seenCount = n;
+        time = gs.time;
+        modifications = gs.pgs.units.modifications();
+    }
+
+    private long pack(Unit u) {
+        return ((long) (u.getX() + u.getY() * width) << 16) | u.getType().sightRadius;
+    }
+
+    /**
+     * Adds delta to the counts of the cells seen by a unit in the given
+     * packed cell, with the given packed sight radius.
+     */
+    private void add(long key, int delta) {
+        if (sharedCounts) {
+            counts = counts.clone();
+            sharedCounts = false;
+        }
+        int cell = (int) (key >>> 16);
+        int x = cell % width;
+        int y = cell / width;
+        int[] stencil = stencil((int) (key & 0xFFFF));
+        for (int i = 0; i < stencil.length; i += 2) {
+            int x2 = x + stencil[i];
+            int y2 = y + stencil[i + 1];
+            if (x2 >= 0 && x2 < width && y2 >= 0 && y2 < height) {
+                counts[x2 + y2 * width] += delta;
+            }
+        }
+    }
+
+    private static int[] stencil(int radius) {
+        int[][] s = stencils;
+        if (radius < s.length && s[radius] != null) {
+            return s[radius];
+        }
+        int[] stencil = new int[2 * (2 * radius + 1) * (2 * radius + 1)];
+        int n = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                // the same test as sqrt(dx*dx + dy*dy) <= radius, without the square root
+                if (dx * dx + dy * dy <= radius * radius) {
+                    stencil[n++] = dx;
+                    stencil[n++] = dy;
+                }
+            }
+        }
+        stencil = Arrays.copyOf(stencil, n);
+        synchronized (VisibilityMap.class) {
+            s = stencils;
+            if (radius >= s.length) {
+                s = Arrays.copyOf(s, radius + 1);
+            } else {
+                s = s.clone();
+            }
+            s[radius] = stencil;
+            stencils = s;
+        }
+        return stencil;
+    }
+}
@@ -26,10 +26,32 @@ public class Unit implements Serializable {
 
     /**
      * Indicates the ID to assign to a new unit. It is incremented when the
-     * constructor without explicit ID is used
+     * constructor without explicit ID is used. The units produced during a
+     * game get their IDs from the map instead (see
+     * {@link PhysicalGameState#newUnitID()}).
+     * Units created in several threads at the same time take their IDs
+     * through {@link #newID()} and {@link #reserveID(long)}, which
+     * synchronize on the class.
      */
     public static long next_ID = 0;
 
+    /**
+     * Returns the value of {@link #next_ID} and increments it.
+     */
+    public static synchronized long newID() {
+        return next_ID++;
+    }
+
+    /**
+     * Makes sure that {@link #next_ID} is larger than the given ID, which
+     * was given to a unit explicitly.
+     */
+    public static synchronized void reserveID(long a_ID) {
+        if (a_ID >= next_ID) {
+            next_ID = a_ID + 1;
+        }
+    }
+
     /**
      * The unique identifier of this unit
      */
@@ -75,7 +97,7 @@ public class Unit implements Serializable {
         hitpoints = a_type.hp;
         ID = a_ID;
         if (ID >= next_ID) {
-            next_ID = ID + 1;
+            reserveID(ID);
         }
     }
 
@@ -96,7 +118,7 @@ public class Unit implements Serializable {
         y = a_y;
         resources = a_resources;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        ID = newID();
     }
 
     /**
@@ -114,7 +136,7 @@ public class Unit implements Serializable {
         y = a_y;
         resources = 0;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        ID = newID();
     }
 
     /**
@@ -602,7 +624,7 @@ public class Unit implements Serializable {
 
         long ID = Long.parseLong(IDStr);
         if (ID >= next_ID) {
-            next_ID = ID + 1;
+            reserveID(ID);
         }
         UnitType type = utt.getUnitType(typeName);
         int player = Integer.parseInt(playerStr);
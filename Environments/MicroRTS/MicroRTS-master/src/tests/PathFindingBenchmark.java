@@ -0,0 +1,108 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package tests;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.pathfinding.AStarPathFinding;
+import ai.abstraction.pathfinding.BucketAStarPathFinding;
+import ai.abstraction.pathfinding.PathFinding;
+import ai.core.AI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ *
+ * Compares the pathfinding implementations on the bundled maps. For each map,
+ * the states reached during a game between two random AIs are collected, and
+ * then the same random queries (a unit, a target and a range) are run with
+ * every implementation. The first steps returned by each of them are compared
+ * with those of AStarPathFinding, and the time used by each one is printed.
+ *
+ * It has to be run from the MicroRTS folder, so that the maps can be found.
+ *
+ */
+public class PathFindingBenchmark {
+
+    static final String maps[] = {"maps/8x8/basesWorkers8x8.xml",
+                                  "maps/16x16/basesWorkers16x16.xml",
+                                  "maps/24x24/basesWorkers24x24.xml",
+                                  "maps/BWDistantResources32x32.xml",
+                                  "maps/chambers32x32.xml",
+                                  "maps/GardenOfWar64x64.xml"};
+
+    static final int STATES = 50;
+    static final int QUERIES = 200;
+    static final int REPETITIONS = 5;
+
+    public static void main(String args[]) throws Exception {
+        UnitTypeTable utt = new UnitTypeTable();
+        PathFinding reference = new AStarPathFinding();
+        PathFinding candidates[] = {new AStarPathFinding(), new BucketAStarPathFinding()};
+
+        for(String map:maps) {
+            List<GameState> states = collectStates(PhysicalGameState.load(map, utt), utt);
+            PhysicalGameState pgs = states.get(0).getPhysicalGameState();
+            int size = pgs.getWidth()*pgs.getHeight();
+
+            // generate the queries, and the expected answers:
+            Random r = new Random(0);
+            List<Object[]> queries = new ArrayList<>();
+            for(GameState gs:states) {
+                List<Unit> units = new ArrayList<>();
+                for(Unit u:gs.getUnits()) {
+                    if (u.getType().canMove) units.add(u);
+                }
+                if (units.isEmpty()) continue;
+                for(int i = 0;i<QUERIES;i++) {
+                    Unit u = units.get(r.nextInt(units.size()));
+                    int target = r.nextInt(size);
+                    int range = r.nextInt(4);
+                    UnitAction expected = reference.findPathToPositionInRange(u, target, range, gs, null);
+                    queries.add(new Object[]{gs, u, target, range, expected});
+                }
+            }
+
+            System.out.println(map + " (" + states.size() + " states, " + queries.size() + " queries)");
+            for(PathFinding pf:candidates) {
+                int mismatches = 0;
+                for(Object[] q:queries) {
+                    UnitAction ua = pf.findPathToPositionInRange((Unit)q[1], (Integer)q[2], (Integer)q[3], (GameState)q[0], null);
+                    if (ua==null ? q[4]!=null : !ua.equals(q[4])) mismatches++;
+                }
+                long start = System.nanoTime();
+                for(int i = 0;i<REPETITIONS;i++) {
+                    for(Object[] q:queries) {
+                        pf.findPathToPositionInRange((Unit)q[1], (Integer)q[2], (Integer)q[3], (GameState)q[0], null);
+                    }
+                }
+                double us = (System.nanoTime()-start)/1000.0/(REPETITIONS*queries.size());
+                System.out.println("  " + pf + ": " + String.format("%.2f", us) + " us/query, " + mismatches + " mismatches");
+            }
+        }
+    }
+
+
+    static List<GameState> collectStates(PhysicalGameState pgs, UnitTypeTable utt) throws Exception {
+        List<GameState> states = new ArrayList<>();
+        GameState gs = new GameState(pgs, utt);
+        AI ai1 = new RandomBiasedAI();
+        AI ai2 = new RandomBiasedAI();
+        int period = 20;
+        while(states.size()<STATES && !gs.gameover()) {
+            if (gs.getTime()%period==0) states.add(gs.clone());
+            gs.issueSafe(ai1.getAction(0, gs));
+            gs.issueSafe(ai2.getAction(1, gs));
+            gs.cycle();
+        }
+        return states;
+    }
+}
@@ -28,6 +28,9 @@ public class TraceVisualizationTest {
 		  ZipInputStream zipIs=new ZipInputStream(new FileInputStream(args[0]));
 		  zipIs.getNextEntry();
 		  t = new Trace(new SAXBuilder().build(zipIs).getRootElement());
+	  }else if(args[0].endsWith(".trace")){
+		  // a binary trace, as written by the benchmarks, read as it is viewed
+		  t = Trace.fromBinary(args[0]);
 	  }else{ 
 		  t = new Trace(new SAXBuilder().build(args[0]).getRootElement());
 	  }
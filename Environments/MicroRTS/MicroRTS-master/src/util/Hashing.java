@@ -0,0 +1,23 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package util;
+
+/**
+ * Helpers for the 64 bit hashes of game states, actions and pathfinding
+ * queries.
+ */
+public class Hashing {
+
+    /**
+     * The finalizer of SplitMix64. It spreads every bit of the input over
+     * the whole output, so sums and xors of mixed values make good hashes.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package util;
+
+import java.util.SplittableRandom;
+
+/**
+ * The generator of the random numbers used by the game and by the searches
+ * when they aren't given one explicitly.
+ *
+ * Every thread has its own generator, so games and searches can run in
+ * several threads at the same time without sharing one. A thread that
+ * installs a seeded generator draws the same numbers every time it does the
+ * same things, which makes a game or a search reproducible. Threads that
+ * don't install one get an unseeded generator.
+ */
+public class RandomSource {
+
+    private static final ThreadLocal<SplittableRandom> current = ThreadLocal.withInitial(SplittableRandom::new);
+
+    /**
+     * Returns the generator of the calling thread.
+     */
+    public static SplittableRandom current() {
+        return current.get();
+    }
+
+    /**
+     * Makes the given generator the generator of the calling thread and
+     * returns the previous one, so that it can be restored afterwards.
+     */
+    public static SplittableRandom install(SplittableRandom r) {
+        SplittableRandom previous = current.get();
+        current.set(r);
+        return previous;
+    }
+}
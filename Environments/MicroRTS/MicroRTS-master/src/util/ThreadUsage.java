@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+
+/**
+ * The CPU time and the memory that other threads spent on behalf of a thread,
+ * e.g. the helper threads of a parallel search on behalf of the thread that
+ * runs the search. Whoever measures the work of a thread by its own counters
+ * adds these, so the work that it handed to other threads isn't missed.
+ */
+public class ThreadUsage {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final ThreadLocal<ThreadUsage> current = ThreadLocal.withInitial(ThreadUsage::new);
+
+    private long cpuNs = 0;
+    private long allocatedBytes = 0;
+
+    /**
+     * Returns the usage of the helpers of the calling thread.
+     */
+    public static ThreadUsage current() {
+        return current.get();
+    }
+
+    /**
+     * The CPU time of the helpers, in nanoseconds.
+     */
+    public synchronized long getCpuNs() {
+        return cpuNs;
+    }
+
+    /**
+     * The bytes allocated by the helpers.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Runs the given task in the calling thread on behalf of the owner of
+     * this usage, and adds the CPU time and the memory that the task took
+     * to it. The counters that the JVM doesn't support aren't added.
+     */
+    public <T> T run(Callable<T> task) throws Exception {
+        long cpu = cpuTime();
+        long bytes = allocatedBytes();
+        try {
+            return task.call();
+        }
+        finally {
+            long cpu2 = cpuTime();
+            long bytes2 = allocatedBytes();
+            synchronized (this) {
+                if (cpu >= 0 && cpu2 >= 0) cpuNs += cpu2 - cpu;
+                if (bytes >= 0 && bytes2 >= 0) allocatedBytes += bytes2 - bytes;
+            }
+        }
+    }
+
+    private static long cpuTime() {
+        return threads.isThreadCpuTimeEnabled() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+        return threads instanceof com.sun.management.ThreadMXBean
+            ? ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId())
+            : -1;
+    }
+}